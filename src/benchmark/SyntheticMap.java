@@ -0,0 +1,75 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import terrain.CellId;
+
+// A map made of square rooms (walls on their borders) with objects inside, and its visibility: every free cell sees
+// all the cells of its own room. Used to measure the LoD system at any size without map and visibility files.
+public class SyntheticMap {
+
+	private int xSize, ySize; // Rows and columns, as in the map files
+	private int[] cellValues; // Row by row, as in the map files
+	private Map<Long, long[]> visibility = new HashMap<Long, long[]>();
+	private int numInstances = 0;
+
+	// density: probability of a free cell having an object (the object model is chosen at random)
+	public SyntheticMap(int xSize, int ySize, int roomSize, float density, long seed) {
+		this.xSize = xSize;
+		this.ySize = ySize;
+		this.cellValues = new int[xSize*ySize];
+		Random random = new Random(seed);
+
+		for (int row = 0; row < xSize; row++) {
+			for (int col = 0; col < ySize; col++) {
+				int value;
+				if (row % roomSize == 0 || col % roomSize == 0 || row == xSize-1 || col == ySize-1) value = 0; // Wall
+				else if (random.nextFloat() < density) value = 1 + random.nextInt(3); // An object
+				else value = -1; // Empty
+				cellValues[row*ySize + col] = value;
+				if (value > 0) numInstances++;
+			}
+		}
+
+		// All the free cells of a room share the same visible set
+		for (int roomRow = 0; roomRow < xSize; roomRow += roomSize) {
+			for (int roomCol = 0; roomCol < ySize; roomCol += roomSize) {
+				long[] room = new long[roomSize*roomSize];
+				int numCells = 0;
+				for (int row = roomRow; row < Math.min(roomRow + roomSize, xSize); row++) {
+					for (int col = roomCol; col < Math.min(roomCol + roomSize, ySize); col++) {
+						if (cellValues[row*ySize + col] != 0) room[numCells++] = CellId.encode(col, row);
+					}
+				}
+				long[] visibleCells = Arrays.copyOf(room, numCells);
+				for (int i = 0; i < numCells; i++) {
+					visibility.put(visibleCells[i], visibleCells);
+				}
+			}
+		}
+	}
+
+	public int getXSize() {
+		return xSize;
+	}
+
+	public int getYSize() {
+		return ySize;
+	}
+
+	public int[] getCellValues() {
+		return cellValues;
+	}
+
+	public Map<Long, long[]> getVisibility() {
+		return visibility;
+	}
+
+	public int getNumInstances() {
+		return numInstances;
+	}
+
+}
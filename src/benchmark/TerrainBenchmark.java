@@ -0,0 +1,163 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import render.HeadlessLoader;
+import terrain.Terrain;
+
+// Measures the per-frame work of Terrain on synthetic maps of growing size (from the size of map1 up to millions
+// of cells), without a Display. For every map size and phase it prints the average time of an operation
+// and the bytes allocated by it (when the JVM can measure the allocations of a thread).
+//
+// Each phase is run for some warmup iterations (not measured, to let the JIT compile the code) and then for the
+// measured ones. The camera moves between a fixed set of positions, so the positions are not allocated while measuring.
+//
+// Usage: TerrainBenchmark [options]
+//   -sizes 31,125,250          cells per side of the synthetic maps (2000 is about 2.5 million instances)
+//   -warmup n                  warmup iterations of each phase
+//   -iterations n              measured iterations of each phase
+//   -ops n                     operations per iteration
+//   -density d                 probability of a free cell having an object
+//   -multi                     allow multiple LoD changes per frame
+public class TerrainBenchmark {
+
+	private static final int ROOM_SIZE = 8; // Cells per side of the rooms of the synthetic maps
+	private static final int NUM_POSITIONS = 256; // Number of camera positions used by each phase
+	private static final long SEED = 1234;
+
+	private static final String[] PHASES = {"update", "updateContributionLists", "updateObjectVisibility", "getSceneTriangles"};
+
+	private static int warmup = 5, iterations = 10, ops = 200;
+	private static boolean multi = false;
+
+	private static com.sun.management.ThreadMXBean threadBean;
+	private static int blackhole = 0; // Results of the operations are added here, so they can not be removed by the JIT
+
+	public static void main(String[] args) {
+		int[] sizes = {31, 125, 250, 500, 1000};
+		float density = 0.8f;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-sizes")) sizes = parseSizes(args[++i]);
+			else if (args[i].equals("-warmup")) warmup = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-iterations")) iterations = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-ops")) ops = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-density")) density = Float.parseFloat(args[++i]);
+			else if (args[i].equals("-multi")) multi = true;
+			else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(-1);
+			}
+		}
+
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threadBean = (com.sun.management.ThreadMXBean) bean;
+			threadBean.setThreadAllocatedMemoryEnabled(true);
+		}
+
+		System.out.println("size,instances,phase,ns/op,B/op");
+		for (int size : sizes) {
+			if (size < 3 || size > 46340) { // The map is stored in a single array
+				System.err.println("Map sizes must be between 3 and 46340 cells per side");
+				System.exit(-1);
+			}
+			SyntheticMap syntheticMap = new SyntheticMap(size, size, ROOM_SIZE, density, SEED);
+			Vector3f[] path = createPath(syntheticMap);
+			Vector3f[] cells = createRandomCells(syntheticMap);
+
+			Terrain map = new Terrain(new HeadlessLoader(), syntheticMap.getXSize(), syntheticMap.getYSize(),
+					syntheticMap.getCellValues(), syntheticMap.getVisibility(), path[0]);
+			map.setMultipleChangesPerFrame(multi);
+
+			for (String phase : PHASES) {
+				for (int i = 0; i < warmup; i++) {
+					runPhase(map, phase, path, cells);
+				}
+				long time = 0, bytes = 0;
+				for (int i = 0; i < iterations; i++) {
+					long allocatedBefore = getAllocatedBytes();
+					long start = System.nanoTime();
+					runPhase(map, phase, path, cells);
+					time += System.nanoTime() - start;
+					bytes += getAllocatedBytes() - allocatedBefore;
+				}
+				long totalOps = (long) iterations * ops;
+				System.out.println(size + "," + syntheticMap.getNumInstances() + "," + phase + "," + (time / totalOps)
+						+ "," + (threadBean == null ? "n/a" : String.valueOf(bytes / totalOps)));
+			}
+		}
+		if (blackhole == 42) System.out.println(); // Never true in practice, only keeps the results alive
+	}
+
+	// Runs one iteration (ops operations) of a phase
+	private static void runPhase(Terrain map, String phase, Vector3f[] path, Vector3f[] cells) {
+		if (phase.equals("update")) {
+			for (int i = 0; i < ops; i++) {
+				map.update(path[i % NUM_POSITIONS]);
+			}
+		} else if (phase.equals("updateContributionLists")) {
+			for (int i = 0; i < ops; i++) {
+				map.updateContributionLists(path[i % NUM_POSITIONS]);
+			}
+		} else if (phase.equals("updateObjectVisibility")) {
+			// A different cell every time, so the visible set always has to be recomputed
+			for (int i = 0; i < ops; i++) {
+				map.updateObjectVisibility(cells[i % NUM_POSITIONS]);
+			}
+		} else {
+			for (int i = 0; i < ops; i++) {
+				blackhole += map.getSceneTriangles();
+			}
+		}
+		blackhole += map.getNumVisibleInstances();
+	}
+
+	// Camera positions walking slowly along the middle of the first row of rooms (and back)
+	private static Vector3f[] createPath(SyntheticMap map) {
+		Vector3f[] path = new Vector3f[NUM_POSITIONS];
+		float z = Math.min(ROOM_SIZE / 2, map.getXSize() - 2) + 0.5f;
+		float length = map.getYSize() - 3;
+		for (int i = 0; i < NUM_POSITIONS; i++) {
+			float t = (float) i / NUM_POSITIONS * 2;
+			if (t > 1) t = 2 - t;
+			path[i] = new Vector3f(1.5f + t * length, 6, z);
+		}
+		return path;
+	}
+
+	// Camera positions at the centre of random free cells of the whole map, each one different from the previous one
+	private static Vector3f[] createRandomCells(SyntheticMap map) {
+		Vector3f[] cells = new Vector3f[NUM_POSITIONS];
+		Random random = new Random(SEED);
+		int[] values = map.getCellValues();
+		int previous = -1;
+		for (int i = 0; i < NUM_POSITIONS; i++) {
+			int cell;
+			do {
+				cell = random.nextInt(values.length);
+			} while (values[cell] == 0 || cell == previous);
+			previous = cell;
+			cells[i] = new Vector3f(cell % map.getYSize() + 0.5f, 6, cell / map.getYSize() + 0.5f);
+		}
+		return cells;
+	}
+
+	// Bytes allocated by this thread since it started (0 if the JVM can not measure it)
+	private static long getAllocatedBytes() {
+		if (threadBean == null) return 0;
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static int[] parseSizes(String list) {
+		String[] values = list.split(",");
+		int[] sizes = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			sizes[i] = Integer.parseInt(values[i].trim());
+		}
+		return sizes;
+	}
+
+}
@@ -16,32 +16,34 @@ public class Camera {
 		this.yaw = yaw;
 	}
 	
-	public void move(Float delta) {
+	public void move(float delta) {
 		moveCamera(delta);
 		calculatePitch();
 		calculateYaw();
 	}
 	
-	private void moveCamera(Float delta) {
-		Vector3f actPos = this.position;
-		Float step = 5 * delta;
+	// The position is changed in place (the same vector is kept during the whole execution)
+	// Each key moves the camera from where it was at the start of the frame, so only the last key pressed applies
+	private void moveCamera(float delta) {
+		float x = position.x, y = position.y, z = position.z;
+		float step = 5 * delta;
 		if (Keyboard.isKeyDown(Keyboard.KEY_D)) {
-			this.position = new Vector3f(actPos.x + step, actPos.y, actPos.z);
+			position.set(x + step, y, z);
 		}
 		if (Keyboard.isKeyDown(Keyboard.KEY_A)) {
-			this.position = new Vector3f(actPos.x - step, actPos.y, actPos.z);
+			position.set(x - step, y, z);
 		}
 		if (Keyboard.isKeyDown(Keyboard.KEY_W)) {
-			this.position = new Vector3f(actPos.x, actPos.y, actPos.z - step);
+			position.set(x, y, z - step);
 		}
 		if (Keyboard.isKeyDown(Keyboard.KEY_S)) {
-			this.position = new Vector3f(actPos.x, actPos.y, actPos.z + step);
+			position.set(x, y, z + step);
 		}
 		if (Keyboard.isKeyDown(Keyboard.KEY_Q)) {
-			this.position = new Vector3f(actPos.x, actPos.y - step, actPos.z);
+			position.set(x, y - step, z);
 		}
 		if (Keyboard.isKeyDown(Keyboard.KEY_E)) {
-			this.position = new Vector3f(actPos.x, actPos.y + step, actPos.z);
+			position.set(x, y + step, z);
 		}
 	}
 	
@@ -65,6 +67,12 @@ public class Camera {
 		}
 	}
 
+	// Places the camera without the keyboard and the mouse (to replay a recorded path)
+	public void setOrientation(float pitch, float yaw) {
+		this.pitch = pitch;
+		this.yaw = yaw;
+	}
+	
 	public void invertPitch() {
 		this.pitch = -pitch;
 	}
@@ -0,0 +1,141 @@
+package entities;
+
+import java.util.Arrays;
+
+public class InstanceStore {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	public static final int NEVER_CHANGED = Integer.MIN_VALUE; // Stamp of an instance whose LoD has never changed
+
+	private int size; // Number of instances stored
+	private int visibleTriangles; // Sum of the triangles of all the visible instances (kept up to date by the LODEntities)
+
+	// One packed array per field, all of them indexed by the global id of the instance
+	private float[] x; // Offset of each instance along the x axis
+	private float[] z; // Offset of each instance along the z axis
+	private byte[] lod; // Level of detail of each instance
+	private int[] lastChange; // Stamp (frame number or time) of the last change of level of detail of each instance
+	private long[] visibility; // One bit per instance, set if the instance is visible from the camera
+	private long[] active; // One bit per instance, set if its LoD is managed (cleared while its region is paged out)
+	private float[] contributionUp; // Difference in contribution with the +1 level of detail (NaN if not possible)
+	private float[] contributionDown; // Difference in contribution with the -1 level of detail (NaN if not possible)
+
+	public InstanceStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public InstanceStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.size = 0;
+		this.x = new float[capacity];
+		this.z = new float[capacity];
+		this.lod = new byte[capacity];
+		this.lastChange = new int[capacity];
+		this.visibility = new long[(capacity + 63) >>> 6];
+		this.active = new long[(capacity + 63) >>> 6];
+		this.contributionUp = new float[capacity];
+		this.contributionDown = new float[capacity];
+	}
+
+	// Adds a new instance at the given offset and returns its global id
+	public int add(float offsetX, float offsetZ) {
+		ensureCapacity(size + 1);
+		x[size] = offsetX;
+		z[size] = offsetZ;
+		lod[size] = 0; // Initially at lowest level of detail
+		lastChange[size] = NEVER_CHANGED;
+		contributionUp[size] = Float.NaN;
+		contributionDown[size] = Float.NaN;
+		// Not visible on first frame (the bit is already cleared)
+		setActive(size, true);
+		return size++;
+	}
+
+	// Grows all the arrays (at least doubling them) so that they can hold this number of instances
+	private void ensureCapacity(int capacity) {
+		if (capacity <= x.length) return;
+		int newCapacity = Math.max(capacity, x.length * 2);
+		x = Arrays.copyOf(x, newCapacity);
+		z = Arrays.copyOf(z, newCapacity);
+		lod = Arrays.copyOf(lod, newCapacity);
+		lastChange = Arrays.copyOf(lastChange, newCapacity);
+		visibility = Arrays.copyOf(visibility, (newCapacity + 63) >>> 6);
+		active = Arrays.copyOf(active, (newCapacity + 63) >>> 6);
+		contributionUp = Arrays.copyOf(contributionUp, newCapacity);
+		contributionDown = Arrays.copyOf(contributionDown, newCapacity);
+	}
+
+	// Returns the total number of instances stored
+	public int size() {
+		return size;
+	}
+
+	public float getX(int id) {
+		return x[id];
+	}
+
+	public float getZ(int id) {
+		return z[id];
+	}
+
+	public int getLoD(int id) {
+		return lod[id];
+	}
+
+	public void setLoD(int id, int level) {
+		lod[id] = (byte) level;
+	}
+
+	public int getLastChange(int id) {
+		return lastChange[id];
+	}
+
+	public void setLastChange(int id, int stamp) {
+		lastChange[id] = stamp;
+	}
+
+	public boolean isVisible(int id) {
+		return (visibility[id >>> 6] & (1L << id)) != 0;
+	}
+
+	public void setVisible(int id, boolean visible) {
+		if (visible) visibility[id >>> 6] |= (1L << id);
+		else visibility[id >>> 6] &= ~(1L << id);
+	}
+
+	public boolean isActive(int id) {
+		return (active[id >>> 6] & (1L << id)) != 0;
+	}
+
+	public void setActive(int id, boolean isActive) {
+		if (isActive) active[id >>> 6] |= (1L << id);
+		else active[id >>> 6] &= ~(1L << id);
+	}
+
+	public int getVisibleTriangles() {
+		return visibleTriangles;
+	}
+
+	// Adds (or removes, if negative) triangles to the visible triangle count
+	public void addVisibleTriangles(int triangles) {
+		visibleTriangles += triangles;
+	}
+
+	public float getContributionUp(int id) {
+		return contributionUp[id];
+	}
+
+	public void setContributionUp(int id, float contribution) {
+		contributionUp[id] = contribution;
+	}
+
+	public float getContributionDown(int id) {
+		return contributionDown[id];
+	}
+
+	public void setContributionDown(int id, float contribution) {
+		contributionDown[id] = contribution;
+	}
+
+}
@@ -1,8 +1,5 @@
 package entities;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
@@ -18,23 +15,22 @@ public class LODEntity {
 	
 	private float diagonal; // The diagonal of the bounding box of the model (without scaling)
 	
-	private Integer numInstances; // Number of instances of this entity
-	private ArrayList<Integer> LoD; // The level of detail of each instance
-	private ArrayList<Vector2f> offsets; // The offsets of each entity from the position above
-	private List<Boolean> visibleOffsets; // True if the instance is visible from the camera, false otherwise
+	// The per-instance state (offset, level of detail, visibility, ...) lives in the shared store
+	private InstanceStore store;
+	private int firstInstance; // Global id of the first instance of this entity in the store
+	private int numInstances; // Number of instances of this entity
 
-	public LODEntity(LODModel model, Vector3f position, float rotY, float scale) {
+	public LODEntity(LODModel model, InstanceStore store, Vector3f position, float rotY, float scale) {
 		this.model = model;
+		this.store = store;
 		this.position = position;
 		this.rotY = rotY;
 		this.scale = scale;
 		
 		this.diagonal = computeDiagonal();
 		
+		this.firstInstance = store.size();
 		this.numInstances = 0;
-		this.LoD = new ArrayList<Integer>();
-		this.offsets = new ArrayList<Vector2f>();
-		this.visibleOffsets = new ArrayList<Boolean>();
 	}
 	
 	private Float computeDiagonal() {
@@ -57,21 +53,35 @@ public class LODEntity {
 	}
 	
 	// Add an instance of this entity on the given offset.
+	// The instances of an entity must be added consecutively, so that they get a contiguous range of global ids
 	public void addInstance(Vector2f Ioffset) {
+		if (numInstances == 0) firstInstance = store.size();
+		else if (firstInstance + numInstances != store.size())
+			throw new IllegalStateException("Instances of an LODEntity must be added consecutively");
+		// Initially at lowest level of detail and not visible on first frame (avoid initial frame drop)
+		store.add(Ioffset.x, Ioffset.y);
 		numInstances++;
-		LoD.add(0); // Initially at lowest level of detail
-		offsets.add(Ioffset);
-		visibleOffsets.add(false); // Not visible on first frame (avoid initial frame drop)
 	}
 	
 	// Change the LoD of the instance at this index to this new level of detail
-	public void changeLoDofInstance(Integer index, Integer newLoD) {
-		LoD.set(index, newLoD);
+	public void changeLoDofInstance(int index, int newLoD) {
+		int id = firstInstance + index;
+		if (store.isVisible(id)) store.addVisibleTriangles(model.getNumTriangles(newLoD) - model.getNumTriangles(store.getLoD(id)));
+		store.setLoD(id, newLoD);
+	}
+	
+	// Updates the visibility of the instance at this index (and the visible triangle count, if it changes)
+	public void setInstanceVisible(int index, boolean visible) {
+		int id = firstInstance + index;
+		if (store.isVisible(id) == visible) return;
+		store.setVisible(id, visible);
+		int triangles = model.getNumTriangles(store.getLoD(id));
+		store.addVisibleTriangles(visible ? triangles : -triangles);
 	}
 	
-	// Updates the visibility of the instances
-	public void updateVisibleOffsets(List<Boolean> visibleList) {
-		this.visibleOffsets = visibleList;
+	// Returns whether the instance at this index is visible from the camera
+	public boolean isInstanceVisible(int index) {
+		return store.isVisible(firstInstance + index);
 	}
 
 	public TexturedModel getModel(Integer index) {
@@ -90,47 +100,54 @@ public class LODEntity {
 		return scale;
 	}
 	
+	// Returns the number of triangles of the model at a certain level of detail
+	public int getNumTriangles(int level) {
+		return model.getNumTriangles(level);
+	}
+	
 	// Returns the diagonal of the bounding box with the correct scaling
 	public float getDiagonal() {
 		return diagonal*scale;
 	}
 	
 	// Returns the total number of instances of this entity
-	public Integer getNumInstances() {
+	public int getNumInstances() {
 		return numInstances;
 	}
 	
-	// Returns the level of detail of an instance
-	public Integer getLoDofInstance(Integer index) {
-		return LoD.get(index);
+	// Returns the global id (in the instance store) of the first instance of this entity
+	public int getFirstInstance() {
+		return firstInstance;
 	}
 	
-	// Returns the levels of details of all the instances of this entity
-	public ArrayList<Integer> getLoDs() {
-		return LoD;
+	// Returns the level of detail of an instance
+	public int getLoDofInstance(int index) {
+		return store.getLoD(firstInstance + index);
 	}
 	
-	// Gets all the instances (their offsets) that are at a certain level of detail
-	public ArrayList<Vector2f> getOffSetsLoD(Integer level) {
-		ArrayList<Vector2f> loffsets = new ArrayList<Vector2f>();
-		for (int i = 0; i < numInstances; i++) {
-			if (LoD.get(i) == level) loffsets.add(offsets.get(i));
-		}
-		return loffsets;
+	// Returns the offset of an instance along the x axis
+	public float getOffsetX(int index) {
+		return store.getX(firstInstance + index);
 	}
 	
-	// Gets all the VISIBLE instances (their offsets) that are at a certain level of detail
-	public ArrayList<Vector2f> getVisibleOffSetsLoD(Integer level) {
-		ArrayList<Vector2f> loffsets = new ArrayList<Vector2f>();
-		for (int i = 0; i < numInstances; i++) {
-			if (LoD.get(i) == level && visibleOffsets.get(i)) loffsets.add(offsets.get(i));
-		}
-		return loffsets;
+	// Returns the offset of an instance along the z axis
+	public float getOffsetZ(int index) {
+		return store.getZ(firstInstance + index);
 	}
 	
-	// Returns all the offsets of this entity
-	public ArrayList<Vector2f> getOffSets() {
-		return offsets;
+	// Gets all the VISIBLE instances (their offsets) that are at a certain level of detail, without allocating: stores
+	// the offsets (x and z of each instance, one after the other) in dest and returns the number of instances.
+	// dest must have room for 2 * getNumInstances() values
+	public int getVisibleOffSetsLoD(int level, float[] dest) {
+		int count = 0;
+		for (int i = firstInstance; i < firstInstance + numInstances; i++) {
+			if (store.getLoD(i) == level && store.isVisible(i)) {
+				dest[2*count] = store.getX(i);
+				dest[2*count + 1] = store.getZ(i);
+				count++;
+			}
+		}
+		return count;
 	}
 
 }
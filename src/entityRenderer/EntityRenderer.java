@@ -19,6 +19,10 @@ import toolbox.MatrixOps;
 public class EntityRenderer {
 
 	private EntityShader entityShader;
+	
+	// Reused every frame, so rendering allocates nothing
+	private Matrix4f transformationMatrix = new Matrix4f();
+	private float[] offsets = new float[2 * EntityShader.MAX_INSTANCES];
 
 	public EntityRenderer(Matrix4f projectionMatrix) {
 		entityShader = new EntityShader();
@@ -33,32 +37,41 @@ public class EntityRenderer {
 		entityShader.start();
 		entityShader.loadViewMatrix(camera);
 
-		for (Entity entity : list) { // First we render all the entities (the floor and the walls)
+		for (int i = 0; i < list.size(); i++) { // First we render all the entities (the floor and the walls)
+			Entity entity = list.get(i);
 			TexturedModel model = entity.getModel();
 			bindModelVao(model);
 			bindTexture(model);
 			loadModelMatrix(entity);
-			entityShader.loadOffsetPosition(entity.getOffSets()); // Load the offsets of each instance
-			
-			GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(),
-					GL11.GL_UNSIGNED_INT, 0, entity.getNumInstances()); // Draw the correct number of instances
+			// The shader holds MAX_INSTANCES offsets, so the instances are drawn in groups of that size
+			for (int first = 0; first < entity.getNumInstances(); first += EntityShader.MAX_INSTANCES) {
+				int count = Math.min(entity.getNumInstances() - first, EntityShader.MAX_INSTANCES);
+				entityShader.loadOffsetPosition(entity.getOffSets(), first, count); // Load the offsets of each instance
+				GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(),
+						GL11.GL_UNSIGNED_INT, 0, count); // Draw the correct number of instances
+			}
 			unbindVao();
 		}
 		
-		for (LODEntity entity : lodlist) { // Then, all the LODentities
+		for (int i = 0; i < lodlist.size(); i++) { // Then, all the LODentities
+			LODEntity entity = lodlist.get(i);
+			if (offsets.length < 2 * entity.getNumInstances()) offsets = new float[2 * entity.getNumInstances()];
 			for (int lod = 0; lod < 5; lod++) { // Render each level of detail at one time (different model at each step)
-				// Number of instances of that entity on this level of detail that are visible from the camera position
-				Integer numInst = entity.getVisibleOffSetsLoD(lod).size();
+				// Offsets of the instances of that entity on this level of detail that are visible from the camera position
+				int numInst = entity.getVisibleOffSetsLoD(lod, offsets);
 				if (numInst > 0) { // If no instances are found, don't do the render call
 					TexturedModel model = entity.getModel(lod);
 					bindModelVao(model);
 					bindTexture(model);
 					loadModelMatrix(entity);
-					entityShader.loadOffsetPosition(entity.getVisibleOffSetsLoD(lod)); // Load the offsets of each instance
 					// Notice how only the instances with a Level of detail "lod" and that are visible are loaded
-					
-					GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(),
-							GL11.GL_UNSIGNED_INT, 0, numInst);
+					// The shader holds MAX_INSTANCES offsets, so they are drawn in groups of that size
+					for (int first = 0; first < numInst; first += EntityShader.MAX_INSTANCES) {
+						int count = Math.min(numInst - first, EntityShader.MAX_INSTANCES);
+						entityShader.loadOffsetPosition(offsets, first, count); // Load the offsets of each instance
+						GL31.glDrawElementsInstanced(GL11.GL_TRIANGLES, model.getRawModel().getVertexCount(),
+								GL11.GL_UNSIGNED_INT, 0, count);
+					}
 					unbindVao();
 				}
 			}
@@ -92,14 +105,14 @@ public class EntityRenderer {
 	}
 	
 	private void loadModelMatrix(Entity entity) {
-		Matrix4f transformationMatrix = MatrixOps.createTransformationMatrix(entity.getPosition(), 0, entity.getRotY(), 0,
-				entity.getScale());
+		MatrixOps.createTransformationMatrix(entity.getPosition(), 0, entity.getRotY(), 0, entity.getScale(),
+				transformationMatrix);
 		entityShader.loadTransformationMatrix(transformationMatrix);
 	}
 
 	private void loadModelMatrix(LODEntity entity) {
-		Matrix4f transformationMatrix = MatrixOps.createTransformationMatrix(entity.getPosition(), 0, entity.getRotY(), 0,
-				entity.getScale());
+		MatrixOps.createTransformationMatrix(entity.getPosition(), 0, entity.getRotY(), 0, entity.getScale(),
+				transformationMatrix);
 		entityShader.loadTransformationMatrix(transformationMatrix);
 	}
 	
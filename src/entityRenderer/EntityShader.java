@@ -1,7 +1,9 @@
 package entityRenderer;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 
+import org.lwjgl.BufferUtils;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector2f;
 
@@ -15,12 +17,17 @@ public class EntityShader extends ShaderProgram {
 	private static final String VERTEX_FILE = "/entityRenderer/entityVertexShader.txt";
 	private static final String FRAGMENT_FILE = "/entityRenderer/entityFragmentShader.txt";
 	
+	public static final int MAX_INSTANCES = 2000; // Size of the array of offsets of the shader (instances per draw call)
+	
 	private int location_transformationMatrix;
 	private int location_projectionMatrix;
 	private int location_viewMatrix;
 	private int location_modelTexture;
 	private int location_cameraPosition;
 	private int location_offsetPos[];
+	
+	private Matrix4f viewMatrix = new Matrix4f(); // Reused every frame
+	private FloatBuffer offsetBuffer = BufferUtils.createFloatBuffer(2 * MAX_INSTANCES);
 
 	public EntityShader() {
 		super(VERTEX_FILE, FRAGMENT_FILE);
@@ -41,8 +48,8 @@ public class EntityShader extends ShaderProgram {
 		location_modelTexture = super.getUniformLocation("modelTexture");
 		location_cameraPosition = super.getUniformLocation("cameraPosition");
 		
-		location_offsetPos = new int[2000];
-		for(int i = 0; i < 2000; i++){
+		location_offsetPos = new int[MAX_INSTANCES];
+		for(int i = 0; i < MAX_INSTANCES; i++){
 			location_offsetPos[i] = super.getUniformLocation("offsetPos[" + i + "]");
 		}
 	}
@@ -56,7 +63,7 @@ public class EntityShader extends ShaderProgram {
 	}
 	
 	public void loadViewMatrix(Camera camera) {
-		Matrix4f viewMatrix = MatrixOps.createViewMatrix(camera);
+		MatrixOps.createViewMatrix(camera, viewMatrix);
 		super.loadMatrix(location_viewMatrix, viewMatrix);
 		super.loadVector(location_cameraPosition, camera.getPosition());
 	}
@@ -65,11 +72,20 @@ public class EntityShader extends ShaderProgram {
 		super.loadMatrix(location_projectionMatrix, projection);
 	}
 	
-	// Generates the offset for each instance of the model
-	public void loadOffsetPosition(ArrayList<Vector2f> offsets) {
-		for (int i = 0; i < offsets.size(); i++) {
-			super.load2DVector(location_offsetPos[i], offsets.get(i));
+	// Generates the offset for numOffsets instances of the model, from the offset first (at most MAX_INSTANCES)
+	public void loadOffsetPosition(ArrayList<Vector2f> offsets, int first, int numOffsets) {
+		for (int i = 0; i < Math.min(numOffsets, MAX_INSTANCES); i++) {
+			super.load2DVector(location_offsetPos[i], offsets.get(first + i));
 		}
 	}
+	
+	// Loads the offsets of numOffsets instances (x and z of each one, one after the other), from the instance first,
+	// in a single call (at most MAX_INSTANCES)
+	public void loadOffsetPosition(float[] offsets, int first, int numOffsets) {
+		offsetBuffer.clear();
+		offsetBuffer.put(offsets, 2 * first, 2 * Math.min(numOffsets, MAX_INSTANCES));
+		offsetBuffer.flip();
+		super.load2DVectorArray(location_offsetPos[0], offsetBuffer);
+	}
 
 }
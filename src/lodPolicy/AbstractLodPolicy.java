@@ -0,0 +1,45 @@
+package lodPolicy;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.LODEntity;
+
+// Base for the policies that only depend on the camera position.
+// By default, the cost is the number of triangles and the priority of a change is the benefit it gains (or loses).
+public abstract class AbstractLodPolicy implements LodPolicy {
+
+	// The camera position of the current frame
+	protected float cameraX, cameraY, cameraZ;
+	private boolean initialized = false;
+
+	@Override
+	public boolean beginFrame(Vector3f cameraPos) {
+		if (initialized && cameraPos.x == cameraX && cameraPos.y == cameraY && cameraPos.z == cameraZ) return false;
+		cameraX = cameraPos.x;
+		cameraY = cameraPos.y;
+		cameraZ = cameraPos.z;
+		initialized = true;
+		return true;
+	}
+
+	@Override
+	public float cost(LODEntity entity, int lod) {
+		return entity.getNumTriangles(lod);
+	}
+
+	@Override
+	public float upPriority(LODEntity entity, int lod, float x, float y, float z) {
+		return benefit(entity, lod+1, x, y, z) - benefit(entity, lod, x, y, z);
+	}
+
+	@Override
+	public float downPriority(LODEntity entity, int lod, float x, float y, float z) {
+		return benefit(entity, lod-1, x, y, z) - benefit(entity, lod, x, y, z);
+	}
+
+	// Returns the distance between the camera and this position
+	protected float distance(float x, float y, float z) {
+		return (float) Math.sqrt((x-cameraX)*(x-cameraX) + (y-cameraY)*(y-cameraY) + (z-cameraZ)*(z-cameraZ));
+	}
+
+}
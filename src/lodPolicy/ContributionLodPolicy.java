@@ -0,0 +1,25 @@
+package lodPolicy;
+
+import entities.LODEntity;
+
+// The default policy: the benefit depends on the size of the object (the diagonal of its bounding box) and its
+// distance from the camera, and each level of detail adds half the benefit of the previous one:
+// benefit(lod) = d/dist * (1 - 1/2^lod), so increasing one level from lod gains d/(dist*2^(lod+1))
+public class ContributionLodPolicy extends AbstractLodPolicy {
+
+	@Override
+	public float benefit(LODEntity entity, int lod, float x, float y, float z) {
+		return (float) (entity.getDiagonal()/distance(x, y, z) * (1.0 - 1.0/Math.pow(2.0, lod)));
+	}
+
+	@Override
+	public float upPriority(LODEntity entity, int lod, float x, float y, float z) {
+		return (float) (entity.getDiagonal()/(distance(x, y, z)*Math.pow(2.0, lod+1)));
+	}
+
+	@Override
+	public float downPriority(LODEntity entity, int lod, float x, float y, float z) {
+		return (float) -(entity.getDiagonal()/(distance(x, y, z)*Math.pow(2.0, lod)));
+	}
+
+}
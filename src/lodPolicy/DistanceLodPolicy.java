@@ -0,0 +1,13 @@
+package lodPolicy;
+
+import entities.LODEntity;
+
+// Only the distance from the camera matters (the size of the object is ignored), the closest instances first
+public class DistanceLodPolicy extends AbstractLodPolicy {
+
+	@Override
+	public float benefit(LODEntity entity, int lod, float x, float y, float z) {
+		return (float) (1.0/distance(x, y, z) * (1.0 - 1.0/Math.pow(2.0, lod)));
+	}
+
+}
@@ -0,0 +1,57 @@
+package lodPolicy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.LODEntity;
+
+// Weights the benefit of another policy with an importance per model (1 if not given)
+// Useful to give more detail to the main artefacts of an exhibition than to the rest
+public class ImportanceLodPolicy implements LodPolicy {
+
+	private LodPolicy policy; // The policy that is weighted
+	private Map<LODEntity, Float> importance = new HashMap<LODEntity, Float>();
+
+	public ImportanceLodPolicy(LodPolicy policy) {
+		this.policy = policy;
+	}
+
+	// Sets the importance of a model (all the instances of the entity)
+	// Changing it once the terrain is running only affects the next frame the camera moves
+	public void setImportance(LODEntity entity, float weight) {
+		importance.put(entity, weight);
+	}
+
+	public float getImportance(LODEntity entity) {
+		Float weight = importance.get(entity);
+		return weight == null ? 1.0f : weight;
+	}
+
+	@Override
+	public boolean beginFrame(Vector3f cameraPos) {
+		return policy.beginFrame(cameraPos);
+	}
+
+	@Override
+	public float benefit(LODEntity entity, int lod, float x, float y, float z) {
+		return getImportance(entity) * policy.benefit(entity, lod, x, y, z);
+	}
+
+	@Override
+	public float cost(LODEntity entity, int lod) {
+		return policy.cost(entity, lod);
+	}
+
+	@Override
+	public float upPriority(LODEntity entity, int lod, float x, float y, float z) {
+		return getImportance(entity) * policy.upPriority(entity, lod, x, y, z);
+	}
+
+	@Override
+	public float downPriority(LODEntity entity, int lod, float x, float y, float z) {
+		return getImportance(entity) * policy.downPriority(entity, lod, x, y, z);
+	}
+
+}
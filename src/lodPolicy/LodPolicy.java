@@ -0,0 +1,29 @@
+package lodPolicy;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.LODEntity;
+
+// Decides which instances should change their level of detail first.
+// A policy owns the benefit of rendering an instance at a level of detail, the cost of doing so and the
+// ordering of the candidates (the priority of increasing or decreasing the level of detail of an instance).
+public interface LodPolicy {
+
+	// Called once per frame, before any priority is requested
+	// Returns true if the priorities of all the instances have to be recomputed (for example, the camera moved)
+	public boolean beginFrame(Vector3f cameraPos);
+
+	// Benefit of rendering an instance of the entity (placed at x, y, z) at this level of detail
+	public float benefit(LODEntity entity, int lod, float x, float y, float z);
+
+	// Cost of rendering an instance of the entity at this level of detail
+	// The terrain keeps the visible instances under its budget with this cost, so it can't depend on the camera
+	public float cost(LODEntity entity, int lod);
+
+	// Priority of increasing the level of detail of the instance one level (the highest is changed first)
+	public float upPriority(LODEntity entity, int lod, float x, float y, float z);
+
+	// Priority of decreasing the level of detail of the instance one level (the highest is changed first)
+	public float downPriority(LODEntity entity, int lod, float x, float y, float z);
+
+}
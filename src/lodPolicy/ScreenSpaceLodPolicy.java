@@ -0,0 +1,97 @@
+package lodPolicy;
+
+import org.lwjgl.opengl.Display;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.LODEntity;
+import render.MasterRenderer;
+import toolbox.MatrixOps;
+
+// The benefit depends on the number of pixels the instance covers on the screen: its bounding sphere is projected
+// with the same field of view, near plane and viewport used to render, so instances behind the camera or outside
+// the view frustum have no benefit at all (and are the first ones to lose detail).
+public class ScreenSpaceLodPolicy implements LodPolicy {
+
+	private Camera camera;
+	private float viewportWidth, viewportHeight; // In pixels
+	private float tanHalfFovY, tanHalfFovX; // Half of the field of view (vertical and horizontal)
+	private float nearPlane;
+
+	private Matrix4f viewMatrix = new Matrix4f(); // The view matrix of the current frame
+	private float cameraX, cameraY, cameraZ, cameraPitch, cameraYaw; // The camera when the view matrix was computed
+	private boolean initialized = false;
+
+	// Uses the size of the Display (it has to be created already)
+	public ScreenSpaceLodPolicy(Camera camera) {
+		this(camera, Display.getWidth(), Display.getHeight());
+	}
+
+	public ScreenSpaceLodPolicy(Camera camera, int viewportWidth, int viewportHeight) {
+		this.camera = camera;
+		this.viewportWidth = viewportWidth;
+		this.viewportHeight = viewportHeight;
+		this.tanHalfFovY = (float) Math.tan(Math.toRadians(MasterRenderer.getFOV() / 2f));
+		this.tanHalfFovX = tanHalfFovY * viewportWidth / viewportHeight;
+		this.nearPlane = MasterRenderer.getNearPlane();
+	}
+
+	@Override
+	public boolean beginFrame(Vector3f cameraPos) {
+		// The priorities depend on the position and the orientation of the camera
+		if (initialized && cameraPos.x == cameraX && cameraPos.y == cameraY && cameraPos.z == cameraZ
+				&& camera.getPitch() == cameraPitch && camera.getYaw() == cameraYaw) return false;
+		cameraX = cameraPos.x;
+		cameraY = cameraPos.y;
+		cameraZ = cameraPos.z;
+		cameraPitch = camera.getPitch();
+		cameraYaw = camera.getYaw();
+		initialized = true;
+		MatrixOps.createViewMatrix(camera, viewMatrix);
+		return true;
+	}
+
+	// Returns the number of pixels covered by the bounding sphere of the instance (0 if it is not in the view frustum)
+	public float projectedArea(LODEntity entity, float x, float y, float z) {
+		float radius = entity.getDiagonal() / 2;
+
+		// Position of the center of the sphere in view space (the camera looks towards -z)
+		float viewX = viewMatrix.m00*x + viewMatrix.m10*y + viewMatrix.m20*z + viewMatrix.m30;
+		float viewY = viewMatrix.m01*x + viewMatrix.m11*y + viewMatrix.m21*z + viewMatrix.m31;
+		float depth = -(viewMatrix.m02*x + viewMatrix.m12*y + viewMatrix.m22*z + viewMatrix.m32);
+
+		// Behind the camera (or in front of the near plane)
+		if (depth + radius <= nearPlane) return 0;
+		// Outside the side planes of the frustum (distance from the sphere center to each plane)
+		if ((Math.abs(viewX) - depth*tanHalfFovX) / Math.sqrt(1 + tanHalfFovX*tanHalfFovX) > radius) return 0;
+		if ((Math.abs(viewY) - depth*tanHalfFovY) / Math.sqrt(1 + tanHalfFovY*tanHalfFovY) > radius) return 0;
+
+		// Radius of the projected sphere, in pixels
+		float pixelRadius = radius / (Math.max(depth, nearPlane) * tanHalfFovY) * viewportHeight / 2;
+		float area = (float) (Math.PI * pixelRadius * pixelRadius);
+		return Math.min(area, viewportWidth * viewportHeight);
+	}
+
+	// Each level of detail adds half the benefit of the previous one, as in the default policy
+	@Override
+	public float benefit(LODEntity entity, int lod, float x, float y, float z) {
+		return (float) (projectedArea(entity, x, y, z) * (1.0 - 1.0/Math.pow(2.0, lod)));
+	}
+
+	@Override
+	public float cost(LODEntity entity, int lod) {
+		return entity.getNumTriangles(lod);
+	}
+
+	@Override
+	public float upPriority(LODEntity entity, int lod, float x, float y, float z) {
+		return (float) (projectedArea(entity, x, y, z) / Math.pow(2.0, lod+1));
+	}
+
+	@Override
+	public float downPriority(LODEntity entity, int lod, float x, float y, float z) {
+		return (float) -(projectedArea(entity, x, y, z) / Math.pow(2.0, lod));
+	}
+
+}
@@ -0,0 +1,21 @@
+package lodPolicy;
+
+import entities.LODEntity;
+
+// Same benefit as the default policy, but the candidates are ordered by benefit per triangle:
+// cheap improvements go first, and the changes that save more triangles for the same loss are undone first
+public class TriangleCostLodPolicy extends ContributionLodPolicy {
+
+	@Override
+	public float upPriority(LODEntity entity, int lod, float x, float y, float z) {
+		float extraCost = cost(entity, lod+1) - cost(entity, lod);
+		return super.upPriority(entity, lod, x, y, z) / Math.max(extraCost, 1);
+	}
+
+	@Override
+	public float downPriority(LODEntity entity, int lod, float x, float y, float z) {
+		float savedCost = cost(entity, lod) - cost(entity, lod-1);
+		return super.downPriority(entity, lod, x, y, z) / Math.max(savedCost, 1);
+	}
+
+}
@@ -1,6 +1,7 @@
 package main;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 
 import org.lwjgl.opengl.Display;
@@ -11,15 +12,17 @@ import entities.Camera;
 import fontMeshCreator.FontType;
 import fontMeshCreator.GUIText;
 import fontRender.TextMaster;
+import lodPolicy.ScreenSpaceLodPolicy;
 import render.DisplayManager;
 import render.Loader;
 import render.MasterRenderer;
+import simulation.CameraPath;
+import terrain.BudgetController;
 import terrain.Terrain;
-import terrain.Visibility;
 
 public class MainTest {
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 
 		DisplayManager.createDisplay();
 		
@@ -29,23 +32,31 @@ public class MainTest {
 		
 		Camera camera = new Camera(new Vector3f(16, 6, 30), 20.0f, 0.0f);
 		
-		//Visibility cellVisibility = new Visibility("map1", "map1visibility"); // Uncomment to generate the visibility file
-		Terrain map = new Terrain(loader, "map1", "map1visibility", camera.getPosition());
+		// The visibility of the map is generated (in the background) the first time it is used or after it is edited
+		Terrain map = new Terrain(loader, "map1", camera.getPosition());
+		map.setMultipleChangesPerFrame(true); // Reach the triangle budget in a few frames after a camera jump
+		map.setBudgetController(new BudgetController(1/60f, 120000, 20000, 2000000)); // Budget tuned to hold 60 FPS
+		map.setLodPolicy(new ScreenSpaceLodPolicy(camera)); // Give the triangles to what is actually on screen
+		map.setPredictionTime(0.5f); // Refine the next room before entering it
+		
+		// "-record file" records the camera path, to replay it later with simulation.LodSimulation
+		CameraPath recordedPath = null;
+		if (args.length > 1 && args[0].equals("-record")) recordedPath = new CameraPath();
 		
 		FontType font = new FontType(loader.loadTexture("candara"), new File("res/candara.fnt"));
 		GUIText fps_text = new GUIText("FPS: ", 1.8f, font, new Vector2f(0.008f, 0.008f), 1f, false);
 		fps_text.setColour(1, 0, 0);
 
-		Integer counter = 1;
+		int counter = 1;
 		float delta, deltacount = 0;
+		DecimalFormat decimalFormat = new DecimalFormat("00");
 		
 		while(!Display.isCloseRequested()) {
 
 			delta = DisplayManager.getFrameTimeSeconds();
 			
-	        if (deltacount > 0.2f) { // update every 200 ms or so
+	        if (deltacount > 0.2f) { // update every 200 ms or so (the only part of the loop that allocates)
 	        	float fps = (float) (counter/deltacount);
-		        DecimalFormat decimalFormat = new DecimalFormat("00");
 		        String numberAsString = decimalFormat.format(fps);
 		        fps_text.remove();
 		        fps_text = new GUIText("FPS: " + numberAsString, 1.8f, font, new Vector2f(0.008f, 0.008f), 1f, false);
@@ -57,7 +68,8 @@ public class MainTest {
 	        	deltacount += delta;
 	        }
 	        
-	        map.update(camera.getPosition()); // update map information that may change every frame
+	        map.update(camera.getPosition(), delta); // update map information that may change every frame
+	        if (recordedPath != null) recordedPath.addFrame(camera.getPosition(), camera.getPitch(), camera.getYaw(), delta);
 			camera.move(delta); // move the camera
 			
 			renderer.renderScene(map.getWalls(), map.getObjects(), camera); // render entities and LOD entities
@@ -66,6 +78,9 @@ public class MainTest {
 			
 		}
 		
+		if (recordedPath != null) recordedPath.save(args[1]);
+		
+		map.cleanUp();
 		TextMaster.cleanUp();
 		renderer.cleanUp();
 		loader.cleanUp();
@@ -5,7 +5,7 @@ import java.util.ArrayList;
 public class LODModel {
 	
 	private ArrayList<TexturedModel> models = new ArrayList<TexturedModel>(); // The model used for each level of detail
-	private Integer[] numTriangles = new Integer[5]; // The number of triangles the model has at each level
+	private int[] numTriangles = new int[5]; // The number of triangles the model has at each level
 	
 	public LODModel (TexturedModel l0, TexturedModel l1, TexturedModel l2, TexturedModel l3, TexturedModel l4) {
 		models.clear();
@@ -26,7 +26,7 @@ public class LODModel {
 	}
 	
 	// Returns the number of triangles at a certain level of detail
-	public Integer getNumTriangles(Integer index) {
+	public int getNumTriangles(int index) {
 		return numTriangles[index];
 	}
 
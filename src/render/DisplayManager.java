@@ -43,6 +43,15 @@ public class DisplayManager {
 		return Sys.getTime()*1000/Sys.getTimerResolution();
 	}
 	
+	// The size of the window (known before it is created, so the headless tools can use it too)
+	public static int getWidth() {
+		return WIDTH;
+	}
+	
+	public static int getHeight() {
+		return HEIGHT;
+	}
+	
 	public static float getFrameTimeSeconds(){
 		return delta;
 	}
@@ -0,0 +1,30 @@
+package render;
+
+import models.RawModel;
+
+// Loader that never touches OpenGL: the models keep all their data (vertices, indices, ...) but they are not sent
+// to the GPU, and textures are not loaded at all. Used to run the LoD system without a Display (simulations, benchmarks).
+public class HeadlessLoader extends Loader {
+
+	@Override
+	public RawModel loadToVAO(String modelName, float[] positions, float[] textureCoords, float[] normals,
+			int[] indices) {
+		return new RawModel(modelName, 0, indices.length, positions, textureCoords, normals, indices);
+	}
+
+	@Override
+	public int loadToVAO(float[] positions, float[] textureCoords) {
+		return 0;
+	}
+
+	@Override
+	public int loadTexture(String fileName) {
+		return 0;
+	}
+
+	@Override
+	public void cleanUp() {
+		// Nothing was created
+	}
+
+}
@@ -35,6 +35,15 @@ public class MasterRenderer {
 		entityRenderer.cleanUp();
 	}
 	
+	// Vertical field of view of the projection (in degrees)
+	public static float getFOV() {
+		return FOV;
+	}
+	
+	public static float getNearPlane() {
+		return NEAR_PLANE;
+	}
+	
 	private static Matrix4f createProjectionMatrix() {
 		Matrix4f projectionMatrix = new Matrix4f();
 		float aspectRatio = (float) Display.getWidth() / (float) Display.getHeight();
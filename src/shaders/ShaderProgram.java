@@ -86,6 +86,11 @@ public abstract class ShaderProgram {
 		GL20.glUniform2f(location,vector.x,vector.y);
 	}
 	
+	// Loads consecutive elements of an array of vec2, starting at this location (two floats per element)
+	protected void load2DVectorArray(int location, FloatBuffer vectors) {
+		GL20.glUniform2(location, vectors);
+	}
+	
 	protected void loadMatrix(int location, Matrix4f matrix) {
 		matrix.store(matrixBuffer);
 		matrixBuffer.flip();
@@ -0,0 +1,74 @@
+package simulation;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import render.HeadlessLoader;
+import terrain.Terrain;
+
+// Regression check of the allocations of the per-frame loop: replays the scripted path of LodSimulation on map1 and
+// map2, with one LoD change per frame and with multiple changes (and the camera prediction), and fails (exit code 1)
+// if the frames after the warmup allocate. The allocations are measured as in LodSimulation (Terrain.update and the
+// preparation of the instance offsets done by the renderer), so the JVM has to measure the allocations of a thread.
+//
+// Usage (from the folder with res/, with the classes and lib/jars/* in the classpath): AllocationCheck
+//   java -cp "bin:lib/jars/*" simulation.AllocationCheck
+public class AllocationCheck {
+
+	private static final String[] MAPS = {"map1", "map2"};
+	private static final long MAX_ALLOCATED_BYTES_PER_FRAME = 0;
+	private static final float PREDICTION = 0.5f; // Seconds of camera prediction of the multi mode
+	private static final int WARMUP_RUNS = 1; // Replays not measured, so most of the code is already compiled
+	private static final int MEASURED_RUNS = 4;
+
+	public static void main(String[] args) {
+		boolean failed = false;
+		for (String mapName : MAPS) {
+			failed |= !check(mapName, false);
+			failed |= !check(mapName, true);
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	// Replays the scripted path on the map and returns whether the frames stayed under the limit
+	// When the JIT recompiles a method it can allocate a few bytes on the thread, in one of the replays once in a while,
+	// but an allocation of the code shows up in all of them: the replay that allocated the least is the one compared
+	private static boolean check(String mapName, boolean multi) {
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			replay(mapName, multi);
+		}
+		LodSimulation.Summary summary = null;
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			LodSimulation.Summary measured = replay(mapName, multi);
+			if (summary == null || measured.allocatedBytes < summary.allocatedBytes) summary = measured;
+		}
+
+		String name = mapName + (multi ? " multi" : " single");
+		if (summary.steadyFrames == 0 || summary.allocatedBytes < 0) {
+			System.err.println("FAILED: " + name + ": the allocations can't be measured (too few frames, or not supported by this JVM)");
+			return false;
+		}
+		// The total is compared, as a few bytes in some frames are lost in the average
+		if (summary.allocatedBytes > MAX_ALLOCATED_BYTES_PER_FRAME * summary.steadyFrames) {
+			System.err.println("FAILED: " + name + ": " + summary.allocatedBytes + " bytes allocated in " + summary.steadyFrames
+					+ " frames (max " + MAX_ALLOCATED_BYTES_PER_FRAME + " per frame, " + summary.maxFrameAllocatedBytes
+					+ " in the worst frame)");
+			return false;
+		}
+		System.out.println(name + ": " + summary.allocatedBytes + " bytes allocated in " + summary.steadyFrames + " frames");
+		return true;
+	}
+
+	// Replays the scripted path on a new terrain of the map
+	private static LodSimulation.Summary replay(String mapName, boolean multi) {
+		Vector3f start = new Vector3f(0.5f, 6, 0.5f);
+		Terrain map = new Terrain(new HeadlessLoader(), mapName, mapName + "visibility", start);
+		map.setMultipleChangesPerFrame(multi);
+		if (multi) map.setPredictionTime(PREDICTION);
+		Camera camera = new Camera(new Vector3f(start), 0f, 0f);
+		LodSimulation.Summary summary = LodSimulation.run(map, camera, LodSimulation.scriptedPath(map), null);
+		map.cleanUp();
+		return summary;
+	}
+
+}
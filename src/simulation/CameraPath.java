@@ -0,0 +1,116 @@
+package simulation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.lwjgl.util.vector.Vector3f;
+
+// A sequence of camera positions and orientations (pitch and yaw, in degrees), one per frame, with the time of each
+// frame (in seconds)
+// File format: one frame per line, "x y z frameTime pitch yaw" (lines starting with # are ignored). The files
+// recorded before the orientation was stored ("x y z frameTime") are read with pitch and yaw 0
+public class CameraPath {
+
+	private ArrayList<Vector3f> positions = new ArrayList<Vector3f>();
+	private ArrayList<Float> pitches = new ArrayList<Float>();
+	private ArrayList<Float> yaws = new ArrayList<Float>();
+	private ArrayList<Float> frameTimes = new ArrayList<Float>();
+
+	// Adds a frame to the path (used to record the camera while rendering)
+	public void addFrame(Vector3f position, float pitch, float yaw, float frameTime) {
+		positions.add(new Vector3f(position));
+		pitches.add(pitch);
+		yaws.add(yaw);
+		frameTimes.add(frameTime);
+	}
+
+	public int getNumFrames() {
+		return positions.size();
+	}
+
+	public Vector3f getPosition(int frame) {
+		return positions.get(frame);
+	}
+
+	public float getPitch(int frame) {
+		return pitches.get(frame);
+	}
+
+	public float getYaw(int frame) {
+		return yaws.get(frame);
+	}
+
+	public float getFrameTime(int frame) {
+		return frameTimes.get(frame);
+	}
+
+	// Reads a recorded path from a file
+	public static CameraPath load(String fileName) throws IOException {
+		CameraPath path = new CameraPath();
+		BufferedReader reader = new BufferedReader(new FileReader(new File(fileName)));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				String[] values = line.split("\\s+");
+				Vector3f position = new Vector3f(Float.parseFloat(values[0]), Float.parseFloat(values[1]),
+						Float.parseFloat(values[2]));
+				float frameTime = values.length > 3 ? Float.parseFloat(values[3]) : 1/60f;
+				float pitch = values.length > 5 ? Float.parseFloat(values[4]) : 0;
+				float yaw = values.length > 5 ? Float.parseFloat(values[5]) : 0;
+				path.addFrame(position, pitch, yaw, frameTime);
+			}
+		} finally {
+			reader.close();
+		}
+		return path;
+	}
+
+	// Writes the path to a file (it can be read again with load)
+	public void save(String fileName) throws IOException {
+		FileWriter fw = new FileWriter(fileName);
+		try {
+			fw.write("# x y z frameTime pitch yaw\n");
+			for (int i = 0; i < positions.size(); i++) {
+				Vector3f position = positions.get(i);
+				fw.write(position.x + " " + position.y + " " + position.z + " " + frameTimes.get(i) + " " + pitches.get(i)
+						+ " " + yaws.get(i) + "\n");
+			}
+		} finally {
+			fw.close();
+		}
+	}
+
+	// Scripted path: walks through the waypoints in order at a constant speed (units per second), looking where it
+	// goes with this pitch
+	public static CameraPath throughWaypoints(ArrayList<Vector3f> waypoints, float speed, float pitch, float frameTime) {
+		CameraPath path = new CameraPath();
+		if (waypoints.isEmpty()) return path;
+		float yaw = waypoints.size() > 1 ? getYaw(waypoints.get(0), waypoints.get(1)) : 0;
+		path.addFrame(waypoints.get(0), pitch, yaw, frameTime);
+		float step = speed * frameTime;
+		for (int i = 1; i < waypoints.size(); i++) {
+			Vector3f from = waypoints.get(i-1), to = waypoints.get(i);
+			float length = Vector3f.sub(to, from, null).length();
+			int frames = Math.max(1, (int) Math.ceil(length / step));
+			yaw = getYaw(from, to);
+			for (int f = 1; f <= frames; f++) {
+				float t = (float) f / frames;
+				path.addFrame(new Vector3f(from.x + (to.x-from.x)*t, from.y + (to.y-from.y)*t, from.z + (to.z-from.z)*t),
+						pitch, yaw, frameTime);
+			}
+		}
+		return path;
+	}
+
+	// The yaw of a camera looking from one point to another (yaw 0 looks towards -z, as the view matrix)
+	private static float getYaw(Vector3f from, Vector3f to) {
+		return (float) Math.toDegrees(Math.atan2(to.x - from.x, -(to.z - from.z)));
+	}
+
+}
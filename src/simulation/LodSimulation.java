@@ -0,0 +1,280 @@
+package simulation;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+
+import org.lwjgl.util.vector.Vector3f;
+
+import entities.Camera;
+import entities.LODEntity;
+import lodPolicy.ContributionLodPolicy;
+import lodPolicy.LodPolicy;
+import render.DisplayManager;
+import render.HeadlessLoader;
+import terrain.BudgetController;
+import terrain.Terrain;
+
+// Runs the LoD and visibility system without a Display (no GPU needed): loads the map, the visibility file and
+// the models (only to know their triangles), replays a camera path (position and orientation, with a camera that
+// is not moved by the keyboard) through Terrain.update and writes the metrics of every frame as CSV. It can also
+// fail (exit code 1) if the results are worse than some limits, to be used on CI.
+//
+// Usage: LodSimulation mapName visibilityName (pathFile | scripted) [options]
+//   -multi                     allow multiple LoD changes per frame
+//   -policy ClassName[,ClassName...]  LoD policy of the lodPolicy package (e.g. DistanceLodPolicy). A policy that
+//                              weights another one takes the next of the list (e.g. ImportanceLodPolicy,ScreenSpaceLodPolicy)
+//                              or the default policy if it is the last one
+//   -viewport width height     viewport of the screen space policy (the size of the window of MainTest by default)
+//   -prediction seconds        predict the camera movement this time ahead
+//   -budget triangles          fixed triangle budget
+//   -controller targetFrameTime initialBudget minBudget maxBudget  retune the budget with the frame times of the path
+//                              (see BudgetController; MainTest uses 0.016667 120000 20000 2000000)
+//   -stream regionSize mb      page the visibility by regions of this size, using at most this memory (in MB)
+//   -preload regions           regions loaded around the one of the camera when streaming (1 = 3x3 regions, by default)
+//   -out file                  write the CSV to a file (standard output otherwise)
+//   -maxOverBudgetFrames n     fail if more frames than this end over the budget
+//   -maxUpdateMicros n         fail if the average time of Terrain.update is higher than this
+//   -maxAllocatedBytesPerFrame n  fail if the frames (after the warmup) allocate more bytes than this on average
+//
+// The allocations are measured around Terrain.update and the preparation of the instance offsets done by the
+// renderer (the CSV output is not counted), only on the JVMs that can measure the allocations of a thread.
+// AllocationCheck runs the fixed allocation regression check with them.
+public class LodSimulation {
+
+	private static final int WARMUP_FRAMES = 120; // Frames not counted in the allocations (JIT, lazy initializations)
+	private static final float SCRIPTED_PITCH = 20; // The pitch of the scripted path (the initial one of MainTest)
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: LodSimulation mapName visibilityName (pathFile | scripted) [options]");
+			System.exit(-1);
+		}
+
+		String mapName = args[0], visibilityName = args[1], pathName = args[2];
+		boolean multi = false;
+		String policyName = null, outName = null;
+		float prediction = 0;
+		int budget = -1, maxOverBudgetFrames = -1, regionSize = 0, preloadRadius = 1;
+		int viewportWidth = DisplayManager.getWidth(), viewportHeight = DisplayManager.getHeight();
+		BudgetController controller = null;
+		long maxResidentBytes = 0;
+		long maxUpdateMicros = -1, maxAllocatedBytesPerFrame = -1;
+		for (int i = 3; i < args.length; i++) {
+			if (args[i].equals("-multi")) multi = true;
+			else if (args[i].equals("-policy")) policyName = args[++i];
+			else if (args[i].equals("-prediction")) prediction = Float.parseFloat(args[++i]);
+			else if (args[i].equals("-budget")) budget = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-viewport")) {
+				viewportWidth = Integer.parseInt(args[++i]);
+				viewportHeight = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-controller")) {
+				controller = new BudgetController(Float.parseFloat(args[++i]), Integer.parseInt(args[++i]),
+						Integer.parseInt(args[++i]), Integer.parseInt(args[++i]));
+			}
+			else if (args[i].equals("-stream")) {
+				regionSize = Integer.parseInt(args[++i]);
+				maxResidentBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+			}
+			else if (args[i].equals("-preload")) preloadRadius = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-out")) outName = args[++i];
+			else if (args[i].equals("-maxOverBudgetFrames")) maxOverBudgetFrames = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-maxUpdateMicros")) maxUpdateMicros = Long.parseLong(args[++i]);
+			else if (args[i].equals("-maxAllocatedBytesPerFrame")) maxAllocatedBytesPerFrame = Long.parseLong(args[++i]);
+			else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(-1);
+			}
+		}
+
+		Vector3f start = new Vector3f(0.5f, 6, 0.5f);
+		Terrain map;
+		if (regionSize > 0) map = new Terrain(new HeadlessLoader(), mapName, visibilityName, start, regionSize, preloadRadius, maxResidentBytes);
+		else map = new Terrain(new HeadlessLoader(), mapName, visibilityName, start);
+		Camera camera = new Camera(new Vector3f(start), 0f, 0f); // Placed on each frame of the path
+		map.setMultipleChangesPerFrame(multi);
+		map.setPredictionTime(prediction);
+		if (budget > 0) map.setTriangleBudget(budget);
+		if (controller != null) map.setBudgetController(controller);
+		if (policyName != null) map.setLodPolicy(createPolicy(policyName.split(","), 0, camera, viewportWidth, viewportHeight));
+
+		CameraPath path = pathName.equals("scripted") ? scriptedPath(map) : CameraPath.load(pathName);
+
+		PrintWriter out = outName == null ? new PrintWriter(System.out) : new PrintWriter(new FileWriter(outName));
+		Summary summary = run(map, camera, path, out);
+		out.flush();
+		if (outName != null) out.close();
+
+		System.err.println(summary);
+		if (map.getStreamer() != null) {
+			System.err.println("residentRegions=" + map.getStreamer().getNumResidentRegions()
+					+ " residentKB=" + map.getStreamer().getResidentBytes() / 1024);
+		}
+		map.cleanUp();
+		boolean failed = false;
+		if (maxOverBudgetFrames >= 0 && summary.overBudgetFrames > maxOverBudgetFrames) {
+			System.err.println("FAILED: " + summary.overBudgetFrames + " frames over budget (max " + maxOverBudgetFrames + ")");
+			failed = true;
+		}
+		if (maxUpdateMicros >= 0 && summary.getAverageUpdateMicros() > maxUpdateMicros) {
+			System.err.println("FAILED: average update of " + summary.getAverageUpdateMicros() + " us (max " + maxUpdateMicros + ")");
+			failed = true;
+		}
+		if (maxAllocatedBytesPerFrame >= 0) {
+			if (summary.steadyFrames == 0 || summary.allocatedBytes < 0) {
+				System.err.println("The allocations can't be measured (too few frames, or not supported by this JVM)");
+			} else if (summary.getAllocatedBytesPerFrame() > maxAllocatedBytesPerFrame) {
+				System.err.println("FAILED: " + summary.getAllocatedBytesPerFrame() + " bytes allocated per frame (max "
+						+ maxAllocatedBytesPerFrame + ")");
+				failed = true;
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	// Replays the path through the terrain, writing one CSV line per frame (out can be null to only get the totals)
+	// The camera is moved along the path (the policies that depend on its orientation have to use this one)
+	public static Summary run(Terrain map, Camera camera, CameraPath path, PrintWriter out) {
+		Summary summary = new Summary();
+		com.sun.management.ThreadMXBean threadBean = getThreadBean();
+		long threadId = Thread.currentThread().getId();
+		float[] offsets = new float[0];
+		if (out != null) out.println("frame,x,y,z,visibleInstances,triangles,budget,lodChanges,updateMicros");
+		for (int frame = 0; frame < path.getNumFrames(); frame++) {
+			Vector3f position = camera.getPosition();
+			position.set(path.getPosition(frame));
+			camera.setOrientation(path.getPitch(frame), path.getYaw(frame));
+			float frameTime = path.getFrameTime(frame);
+			long allocatedBefore = threadBean == null ? 0 : threadBean.getThreadAllocatedBytes(threadId);
+
+			long start = System.nanoTime();
+			map.update(position, frameTime);
+			long updateNanos = System.nanoTime() - start;
+
+			// What the renderer does with the CPU every frame: gather the visible offsets of each LoD
+			for (int i = 0; i < map.getObjects().size(); i++) {
+				LODEntity entity = map.getObjects().get(i);
+				if (offsets.length < 2 * entity.getNumInstances()) offsets = new float[2 * entity.getNumInstances()];
+				for (int lod = 0; lod < 5; lod++) {
+					entity.getVisibleOffSetsLoD(lod, offsets);
+				}
+			}
+
+			if (frame >= WARMUP_FRAMES) {
+				long allocated = threadBean == null ? -1 : threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+				summary.addAllocations(allocated);
+			}
+
+			int triangles = map.getSceneTriangles();
+			if (out != null) out.println(frame + "," + position.x + "," + position.y + "," + position.z + "," + map.getNumVisibleInstances()
+					+ "," + triangles + "," + map.getTriangleBudget() + "," + map.getLastFrameLodChanges() + ","
+					+ updateNanos / 1000);
+			summary.add(triangles, map.getTriangleBudget(), map.getLastFrameLodChanges(), updateNanos);
+		}
+		return summary;
+	}
+
+	// A walk around the map: a loop through the four quarters and a diagonal back to the start
+	public static CameraPath scriptedPath(Terrain map) {
+		float sx = map.getMapSizeX(), sz = map.getMapSizeZ();
+		ArrayList<Vector3f> waypoints = new ArrayList<Vector3f>();
+		waypoints.add(new Vector3f(sx*0.25f, 6, sz*0.25f));
+		waypoints.add(new Vector3f(sx*0.75f, 6, sz*0.25f));
+		waypoints.add(new Vector3f(sx*0.75f, 6, sz*0.75f));
+		waypoints.add(new Vector3f(sx*0.25f, 6, sz*0.75f));
+		waypoints.add(new Vector3f(sx*0.25f, 6, sz*0.25f));
+		waypoints.add(new Vector3f(sx*0.75f, 6, sz*0.75f));
+		return CameraPath.throughWaypoints(waypoints, 5, SCRIPTED_PITCH, 1/60f);
+	}
+
+	// Returns the bean that measures the allocations of each thread (null if this JVM can't do it)
+	private static com.sun.management.ThreadMXBean getThreadBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+		if (!threadBean.isThreadAllocatedMemorySupported()) return null;
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+		return threadBean;
+	}
+
+	// Creates the policy names[index] with the constructor it has: (camera, viewport) for the screen space policy,
+	// the policy it weights (the next name, or the default policy) or no parameters
+	private static LodPolicy createPolicy(String[] names, int index, Camera camera, int viewportWidth, int viewportHeight) {
+		try {
+			Class<?> type = Class.forName("lodPolicy." + names[index]);
+			Constructor<?> screenSpace = findConstructor(type, Camera.class, int.class, int.class);
+			Constructor<?> weighted = findConstructor(type, LodPolicy.class);
+			if (weighted != null) {
+				LodPolicy policy = index + 1 < names.length ? createPolicy(names, index + 1, camera, viewportWidth, viewportHeight)
+						: new ContributionLodPolicy();
+				return (LodPolicy) weighted.newInstance(policy);
+			}
+			if (index + 1 < names.length) throw new IllegalArgumentException(names[index] + " doesn't weight another policy");
+			if (screenSpace != null) return (LodPolicy) screenSpace.newInstance(camera, viewportWidth, viewportHeight);
+			return (LodPolicy) type.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			System.err.println("Can't create the LoD policy " + names[index]);
+			System.exit(-1);
+			return null;
+		}
+	}
+
+	// Returns the public constructor of the class with these parameters (null if it has none)
+	private static Constructor<?> findConstructor(Class<?> type, Class<?>... parameters) {
+		try {
+			return type.getConstructor(parameters);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	// Totals of a simulation
+	public static class Summary {
+
+		public int frames = 0, overBudgetFrames = 0, maxTriangles = 0;
+		public long totalTriangles = 0, totalLodChanges = 0, totalUpdateNanos = 0, maxUpdateNanos = 0;
+		public int steadyFrames = 0; // Frames after the warmup
+		public long allocatedBytes = 0, maxFrameAllocatedBytes = 0; // Allocated by those frames (-1 if unknown)
+
+		public void add(int triangles, int budget, int lodChanges, long updateNanos) {
+			frames++;
+			if (triangles > budget) overBudgetFrames++;
+			maxTriangles = Math.max(maxTriangles, triangles);
+			totalTriangles += triangles;
+			totalLodChanges += lodChanges;
+			totalUpdateNanos += updateNanos;
+			maxUpdateNanos = Math.max(maxUpdateNanos, updateNanos);
+		}
+
+		// Adds the bytes allocated by a frame after the warmup (-1 if they can't be measured)
+		public void addAllocations(long bytes) {
+			steadyFrames++;
+			if (bytes < 0 || allocatedBytes < 0) allocatedBytes = -1;
+			else allocatedBytes += bytes;
+			maxFrameAllocatedBytes = Math.max(maxFrameAllocatedBytes, bytes);
+		}
+
+		public long getAllocatedBytesPerFrame() {
+			return steadyFrames == 0 || allocatedBytes < 0 ? -1 : allocatedBytes / steadyFrames;
+		}
+
+		public long getAverageUpdateMicros() {
+			return frames == 0 ? 0 : totalUpdateNanos / frames / 1000;
+		}
+
+		@Override
+		public String toString() {
+			return "frames=" + frames + " overBudgetFrames=" + overBudgetFrames + " averageTriangles="
+					+ (frames == 0 ? 0 : totalTriangles / frames) + " maxTriangles=" + maxTriangles + " lodChanges="
+					+ totalLodChanges + " averageUpdateMicros=" + getAverageUpdateMicros() + " maxUpdateMicros="
+					+ maxUpdateNanos / 1000 + " allocatedBytesPerFrame=" + getAllocatedBytesPerFrame()
+					+ " maxFrameAllocatedBytes=" + maxFrameAllocatedBytes;
+		}
+
+	}
+
+}
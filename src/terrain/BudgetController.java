@@ -0,0 +1,79 @@
+package terrain;
+
+// Retunes the triangle budget every frame so that the measured frame time gets close to a target frame time.
+// It follows an AIMD scheme (additive increase, multiplicative decrease), with some damping to avoid oscillations:
+// - The frame time is smoothed with an exponential moving average before being compared with the target
+// - Nothing changes while the smoothed frame time is inside a dead band around the target
+// - The budget changes at most once every few frames, so the LoD changes have time to show on the frame time
+public class BudgetController {
+
+	private static final float SMOOTHING = 0.1f; // Weight of the newest frame time in the moving average
+	private static final float DEAD_BAND = 0.1f; // Relative distance to the target frame time that is ignored
+	private static final int ADJUST_INTERVAL = 10; // Frames between two changes of the budget
+	private static final float DECREASE_FACTOR = 0.85f; // The budget is multiplied by this if the frames are too slow
+	private static final float MAX_FRAME_TIME = 1.0f; // Longer frames (loading, window dragged, ...) are ignored
+
+	private float targetFrameTime; // In seconds (1/60 for 60 Hz)
+	private int increaseStep; // Triangles added to the budget if the frames are fast enough
+	private int minBudget, maxBudget;
+
+	private float budget;
+	private float lastFrameTime = 0; // The last frame time received (in seconds)
+	private float measuredFrameTime = 0; // The smoothed frame time (in seconds)
+	private int framesSinceAdjust = 0;
+
+	public BudgetController(float targetFrameTime, int initialBudget, int minBudget, int maxBudget) {
+		this.targetFrameTime = targetFrameTime;
+		this.minBudget = minBudget;
+		this.maxBudget = maxBudget;
+		this.budget = Math.max(minBudget, Math.min(maxBudget, initialBudget));
+		this.increaseStep = Math.max(1, (maxBudget - minBudget) / 100);
+	}
+
+	// Receives the time of the last frame (in seconds) and retunes the budget if needed
+	public void update(float frameTime) {
+		if (frameTime <= 0 || frameTime > MAX_FRAME_TIME) return;
+
+		lastFrameTime = frameTime;
+		if (measuredFrameTime == 0) measuredFrameTime = frameTime;
+		else measuredFrameTime += SMOOTHING * (frameTime - measuredFrameTime);
+
+		framesSinceAdjust++;
+		if (framesSinceAdjust < ADJUST_INTERVAL) return;
+
+		if (measuredFrameTime > targetFrameTime * (1 + DEAD_BAND)) { // Too slow: reduce the budget quickly
+			budget = Math.max(minBudget, budget * DECREASE_FACTOR);
+			framesSinceAdjust = 0;
+		} else if (measuredFrameTime < targetFrameTime * (1 - DEAD_BAND)) { // Fast enough: increase it slowly
+			budget = Math.min(maxBudget, budget + increaseStep);
+			framesSinceAdjust = 0;
+		}
+	}
+
+	// Returns the triangle budget chosen for the next frame
+	public int getBudget() {
+		return (int) budget;
+	}
+
+	public float getLastFrameTime() {
+		return lastFrameTime;
+	}
+
+	public float getMeasuredFrameTime() {
+		return measuredFrameTime;
+	}
+
+	public float getTargetFrameTime() {
+		return targetFrameTime;
+	}
+
+	public void setTargetFrameTime(float targetFrameTime) {
+		this.targetFrameTime = targetFrameTime;
+	}
+
+	// Changes the triangles added to the budget at each increase (by default 1% of the budget range)
+	public void setIncreaseStep(int increaseStep) {
+		this.increaseStep = increaseStep;
+	}
+
+}
@@ -0,0 +1,70 @@
+package terrain;
+
+// Extrapolates the movement of the camera on the ground plane from its recent positions
+public class CameraPredictor {
+
+	private static final int HISTORY = 10; // Number of positions used to estimate the velocity
+	private static final float MIN_SPEED = 0.05f; // Slower movements are ignored (units per second)
+
+	// Recent positions (circular buffer) and the time elapsed since the previous one
+	private float[] x = new float[HISTORY];
+	private float[] z = new float[HISTORY];
+	private float[] elapsed = new float[HISTORY];
+	private int head = 0, count = 0;
+
+	private float velocityX = 0, velocityZ = 0;
+
+	// Adds the position of the camera in this frame (frameTime is the time since the previous one, in seconds)
+	public void record(float posX, float posZ, float frameTime) {
+		head = (head + 1) % HISTORY;
+		x[head] = posX;
+		z[head] = posZ;
+		elapsed[head] = frameTime;
+		if (count < HISTORY) count++;
+
+		// Average velocity between the oldest and the newest positions
+		int oldest = (head - count + 1 + HISTORY) % HISTORY;
+		float time = 0;
+		for (int i = 1; i < count; i++) {
+			time += elapsed[(oldest + i) % HISTORY];
+		}
+		if (time > 0) {
+			velocityX = (x[head] - x[oldest]) / time;
+			velocityZ = (z[head] - z[oldest]) / time;
+		} else {
+			velocityX = 0;
+			velocityZ = 0;
+		}
+	}
+
+	// Returns whether the camera is moving fast enough to make a prediction
+	public boolean isMoving() {
+		return velocityX*velocityX + velocityZ*velocityZ >= MIN_SPEED*MIN_SPEED;
+	}
+
+	// Predicted x position of the camera after this time (in seconds)
+	public float predictX(float seconds) {
+		return x[head] + velocityX * seconds;
+	}
+
+	// Predicted z position of the camera after this time (in seconds)
+	public float predictZ(float seconds) {
+		return z[head] + velocityZ * seconds;
+	}
+
+	public float getVelocityX() {
+		return velocityX;
+	}
+
+	public float getVelocityZ() {
+		return velocityZ;
+	}
+
+	// Forgets all the positions (after a teleport, for example)
+	public void reset() {
+		count = 0;
+		velocityX = 0;
+		velocityZ = 0;
+	}
+
+}
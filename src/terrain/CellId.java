@@ -0,0 +1,52 @@
+package terrain;
+
+// Cell ids of the maps, as Morton (Z-order) codes: the bits of the column (x) and the row (z) of the cell are
+// interleaved in a long (x on the even bits, z on the odd ones). Any column and row from 0 to 2^31-1 has its own id,
+// and cells that are close on the map get close ids, so sorting by id keeps neighbouring cells together.
+//
+// The old visibility files coded the cells as x*1000+z (only maps up to 1000x1000), fromLegacy converts them.
+public class CellId {
+
+	// Returns the id of the cell at column x and row z of the map
+	public static long encode(int x, int z) {
+		return spread(x) | (spread(z) << 1);
+	}
+
+	// Returns the column of the cell
+	public static int getX(long cellId) {
+		return compact(cellId);
+	}
+
+	// Returns the row of the cell
+	public static int getZ(long cellId) {
+		return compact(cellId >>> 1);
+	}
+
+	// Converts a cell coded as x*1000+z into its id
+	public static long fromLegacy(long legacyId) {
+		return encode((int) (legacyId / 1000), (int) (legacyId % 1000));
+	}
+
+	// Moves the 32 bits of the value to the even bits of a long
+	private static long spread(int value) {
+		long v = value & 0xFFFFFFFFL;
+		v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	// Inverse of spread: gathers the even bits of the long into an int
+	private static int compact(long value) {
+		long v = value & 0x5555555555555555L;
+		v = (v | (v >>> 1)) & 0x3333333333333333L;
+		v = (v | (v >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+		v = (v | (v >>> 4)) & 0x00FF00FF00FF00FFL;
+		v = (v | (v >>> 8)) & 0x0000FFFF0000FFFFL;
+		v = (v | (v >>> 16)) & 0x00000000FFFFFFFFL;
+		return (int) v;
+	}
+
+}
@@ -0,0 +1,81 @@
+package terrain;
+
+import java.util.Arrays;
+
+// Spatial index from each cell of the map to the instances placed inside it.
+// Only the cells containing at least one instance are stored (sorted by cell id), and the instances of
+// each of them are packed together in a single array.
+public class CellIndex {
+
+	private long[] cells; // The ids of the cells with instances (sorted)
+	private int[] start; // The instances of the cell at slot i are instances[start[i]] ... instances[start[i+1]-1]
+	private int[] instances; // The global ids of the instances, grouped by cell
+
+	// Builds the index from the cell id of each instance (instanceCells[id] = cell of the instance id)
+	public CellIndex(long[] instanceCells) {
+		int numInstances = instanceCells.length;
+
+		// The different cells, sorted
+		long[] sorted = Arrays.copyOf(instanceCells, numInstances);
+		Arrays.sort(sorted);
+		int numCells = 0;
+		for (int i = 0; i < numInstances; i++) {
+			if (i == 0 || sorted[i] != sorted[i-1]) sorted[numCells++] = sorted[i];
+		}
+		this.cells = Arrays.copyOf(sorted, numCells);
+
+		// Count the instances of each cell, and place them (ids of the same cell keep their order)
+		this.start = new int[numCells + 1];
+		int[] slotOf = new int[numInstances];
+		for (int id = 0; id < numInstances; id++) {
+			slotOf[id] = Arrays.binarySearch(cells, instanceCells[id]);
+			start[slotOf[id] + 1]++;
+		}
+		for (int slot = 0; slot < numCells; slot++) {
+			start[slot + 1] += start[slot];
+		}
+		this.instances = new int[numInstances];
+		int[] next = Arrays.copyOf(start, numCells);
+		for (int id = 0; id < numInstances; id++) {
+			instances[next[slotOf[id]]++] = id;
+		}
+	}
+
+	// Returns the slot of a cell in the index (-1 if the cell has no instances)
+	public int find(long cellId) {
+		int slot = Arrays.binarySearch(cells, cellId);
+		return slot < 0 ? -1 : slot;
+	}
+
+	// Returns the first slot whose cell id is greater or equal than this one (getNumCells() if there is none)
+	public int findFirst(long cellId) {
+		int slot = Arrays.binarySearch(cells, cellId);
+		return slot < 0 ? -slot - 1 : slot;
+	}
+
+	// Returns the number of cells with instances
+	public int getNumCells() {
+		return cells.length;
+	}
+
+	// Returns the cell id stored at this slot
+	public long getCell(int slot) {
+		return cells[slot];
+	}
+
+	// First position (in the instance array) of the instances of the cell at this slot
+	public int getStart(int slot) {
+		return start[slot];
+	}
+
+	// Last position (exclusive) of the instances of the cell at this slot
+	public int getEnd(int slot) {
+		return start[slot + 1];
+	}
+
+	// Returns the global id of the instance stored at this position
+	public int getInstance(int position) {
+		return instances[position];
+	}
+
+}
@@ -0,0 +1,209 @@
+package terrain;
+
+import java.util.Arrays;
+
+// Potentially visible set of a map: for each cell with a row (found by its cell id), the cells visible from it.
+// The visible cells are columns of a dense index (the slots of a CellIndex at runtime, the free cells of the map
+// while generating), and each row is a bitset over them, so isVisible is O(1) and a row is iterated word by word.
+//
+// A row only stores the words between its first and its last visible column. The dense indices follow the order of
+// the cell ids (see CellId), so the cells visible from a cell (usually close to it) fall in a short window, and a row
+// takes a few bits per column of its window instead of a boxed Long per visible cell.
+public class CellVisibility {
+
+	private static final int BYTES_PER_ROW = 24; // Header of the array of words and first word of a row
+	private static final long[] EMPTY_ROW = new long[0];
+
+	private long[] rowCells; // The cells with a row (sorted)
+	private int[] firstWord; // The first word stored by each row
+	private long[][] words; // The bits of each row, from its first word (null if the row is not set or not in memory)
+	private int numColumns;
+
+	// Creates the rows of these cells (sorted, without duplicates), all of them empty
+	public CellVisibility(long[] rowCells, int numColumns) {
+		this.rowCells = rowCells;
+		this.firstWord = new int[rowCells.length];
+		this.words = new long[rowCells.length][];
+		this.numColumns = numColumns;
+	}
+
+	// Returns the row of a cell (-1 if the cell has no row)
+	public int findRow(long cellId) {
+		int row = Arrays.binarySearch(rowCells, cellId);
+		return row < 0 ? -1 : row;
+	}
+
+	public int getNumRows() {
+		return rowCells.length;
+	}
+
+	// The cell id of a row
+	public long getRowCell(int row) {
+		return rowCells[row];
+	}
+
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	// Returns whether the row is set (it may have no visible columns), false if it is not set or not in memory
+	public boolean hasRow(int row) {
+		return words[row] != null;
+	}
+
+	// Returns whether the column is visible from the row
+	public boolean isVisible(int row, int column) {
+		long[] bits = words[row];
+		if (bits == null) return false;
+		int word = (column >>> 6) - firstWord[row];
+		return word >= 0 && word < bits.length && (bits[word] & (1L << column)) != 0;
+	}
+
+	// Returns the first visible column of the row from this one (included), or -1 if there is none
+	public int nextVisible(int row, int column) {
+		long[] bits = words[row];
+		if (bits == null) return -1;
+		int first = firstWord[row];
+		int word = (column >>> 6) - first;
+		if (word < 0) {
+			word = 0;
+			column = first << 6;
+		}
+		if (word >= bits.length) return -1;
+		long current = bits[word] & (-1L << column);
+		while (current == 0) {
+			if (++word == bits.length) return -1;
+			current = bits[word];
+		}
+		return ((first + word) << 6) + Long.numberOfTrailingZeros(current);
+	}
+
+	// Returns the number of visible columns of the row
+	public int countVisible(int row) {
+		long[] bits = words[row];
+		if (bits == null) return 0;
+		int count = 0;
+		for (long word : bits) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	// Replaces the row by these visible columns (in any order)
+	public void setRow(int row, int[] columns, int numVisible) {
+		if (numVisible == 0) {
+			firstWord[row] = 0;
+			words[row] = EMPTY_ROW;
+			return;
+		}
+		int min = columns[0], max = columns[0];
+		for (int i = 1; i < numVisible; i++) {
+			min = Math.min(min, columns[i]);
+			max = Math.max(max, columns[i]);
+		}
+		long[] bits = new long[(max >>> 6) - (min >>> 6) + 1];
+		for (int i = 0; i < numVisible; i++) {
+			bits[(columns[i] >>> 6) - (min >>> 6)] |= 1L << columns[i];
+		}
+		firstWord[row] = min >>> 6;
+		words[row] = bits;
+	}
+
+	// Makes the row use the same bits as another one of this set (rows repeated by many cells are only stored once)
+	// Rows shared this way must not be changed with set or or
+	public void shareRow(int row, int fromRow) {
+		firstWord[row] = firstWord[fromRow];
+		words[row] = words[fromRow];
+	}
+
+	// Unsets the row (it is not in memory any more)
+	public void clearRow(int row) {
+		firstWord[row] = 0;
+		words[row] = null;
+	}
+
+	// Makes the column visible from the row (the window of the row grows if needed)
+	public void set(int row, int column) {
+		int word = column >>> 6;
+		long[] bits = words[row];
+		if (bits == null || bits.length == 0) {
+			bits = new long[1];
+			firstWord[row] = word;
+			words[row] = bits;
+		} else if (word < firstWord[row] || word >= firstWord[row] + bits.length) {
+			bits = grow(row, word, word);
+		}
+		bits[word - firstWord[row]] |= 1L << column;
+	}
+
+	// Adds the columns visible from a row of another set (with the same columns) to a row of this one
+	// Returns the number of columns that were not visible before
+	public int or(int row, CellVisibility other, int otherRow) {
+		long[] from = other.words[otherRow];
+		if (from == null) return 0;
+		return orWords(row, other.firstWord[otherRow], from, from.length);
+	}
+	
+	// Adds the columns of a bitset to a row: the first numWords words of mask, where mask[0] is the word fromFirst
+	// of the row (64 columns at a time). Returns the number of columns that were not visible before
+	public int orWords(int row, int fromFirst, long[] mask, int numWords) {
+		long[] bits = words[row];
+		if (bits == null || bits.length == 0) {
+			firstWord[row] = fromFirst;
+			words[row] = numWords == 0 ? EMPTY_ROW : Arrays.copyOf(mask, numWords);
+			return countVisible(row);
+		}
+		if (numWords == 0) return 0;
+		if (fromFirst < firstWord[row] || fromFirst + numWords > firstWord[row] + bits.length) {
+			bits = grow(row, fromFirst, fromFirst + numWords - 1);
+		}
+		int offset = fromFirst - firstWord[row];
+		int added = 0;
+		for (int i = 0; i < numWords; i++) {
+			added += Long.bitCount(mask[i] & ~bits[offset + i]);
+			bits[offset + i] |= mask[i];
+		}
+		return added;
+	}
+	
+	// Adds all the rows of another set (with the same rows and columns) to this one
+	// Returns the number of (row, column) pairs that were not visible before
+	public long or(CellVisibility other) {
+		long added = 0;
+		for (int row = 0; row < rowCells.length; row++) {
+			added += or(row, other, row);
+		}
+		return added;
+	}
+
+	// Extends the window of a row to cover the words from minWord to maxWord (with some extra room while it grows)
+	private long[] grow(int row, int minWord, int maxWord) {
+		long[] bits = words[row];
+		int first = firstWord[row];
+		int last = first + bits.length - 1;
+		int extra = bits.length; // Doubles the window, so setting the columns one by one is amortized O(1)
+		int newFirst = minWord < first ? Math.max(Math.min(minWord, first - extra), 0) : first;
+		int newLast = maxWord > last ? Math.min(Math.max(maxWord, last + extra), (numColumns - 1) >>> 6) : last;
+		newLast = Math.max(newLast, maxWord);
+		long[] grown = new long[newLast - newFirst + 1];
+		System.arraycopy(bits, 0, grown, first - newFirst, bits.length);
+		firstWord[row] = newFirst;
+		words[row] = grown;
+		return grown;
+	}
+
+	// Returns the memory used by a row (estimated, in bytes)
+	public long getRowBytes(int row) {
+		return words[row] == null ? 0 : BYTES_PER_ROW + 8L * words[row].length;
+	}
+
+	// Returns the memory used by the whole set (estimated, in bytes; a shared row is counted by every row using it)
+	public long getBytes() {
+		long bytes = 12L * rowCells.length; // The cell id and the first word of each row
+		for (int row = 0; row < rowCells.length; row++) {
+			bytes += 8 + getRowBytes(row); // Reference to the words of the row
+		}
+		return bytes;
+	}
+
+}
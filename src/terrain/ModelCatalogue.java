@@ -0,0 +1,100 @@
+package terrain;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.util.ArrayList;
+
+import org.lwjgl.util.vector.Vector3f;
+
+// The LoD model types that can be placed on a map. The value of a cell of the map file is the number of its type
+// (1 = the first type of the catalogue, 2 = the second one, ...).
+//
+// Each type is a line of the catalogue file: modelName offsetY rotY scale
+// The levels of detail of a type are loaded from modelNameCompressionLvl3 ... modelNameCompressionLvl6 and modelName
+// (from lowest to highest). Empty lines and lines starting with # are ignored.
+public class ModelCatalogue {
+
+	private static final String RES_LOC = "res/";
+
+	private ArrayList<String> names = new ArrayList<String>();
+	private ArrayList<Vector3f> positions = new ArrayList<Vector3f>();
+	private ArrayList<Float> rotations = new ArrayList<Float>();
+	private ArrayList<Float> scales = new ArrayList<Float>();
+
+	// The three models of the original maps: 1 = Tea (red on the picture), 2 = Meta (green), 3 = Dragon (blue)
+	public static ModelCatalogue getDefault() {
+		ModelCatalogue catalogue = new ModelCatalogue();
+		catalogue.addType("tea", 0, 30, 0.15f);
+		catalogue.addType("meta", 0.3f, 0, 0.25f);
+		catalogue.addType("dragon", 0, 30, 0.15f);
+		return catalogue;
+	}
+
+	// Reads a catalogue file from the res folder
+	public static ModelCatalogue read(String catalogueName) {
+		FileReader isr = null;
+		File objFile = new File(RES_LOC + catalogueName + ".txt");
+		try {
+			isr = new FileReader(objFile);
+		} catch (FileNotFoundException e) {
+			System.err.println("File not found in res folder!");
+			System.exit(-1);
+		}
+
+		BufferedReader reader = new BufferedReader(isr);
+		ModelCatalogue catalogue = new ModelCatalogue();
+		String line;
+		try {
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				String[] values = line.split("\\s+");
+				catalogue.addType(values[0], Float.parseFloat(values[1]), Float.parseFloat(values[2]),
+						Float.parseFloat(values[3]));
+			}
+			reader.close();
+		} catch (Exception e) {
+			System.err.println("Error reading the Model catalogue file");
+			System.exit(-1);
+		}
+		return catalogue;
+	}
+
+	// Returns whether there is a catalogue file with this name in the res folder
+	public static boolean exists(String catalogueName) {
+		return new File(RES_LOC + catalogueName + ".txt").isFile();
+	}
+
+	// Adds a new type (its number is the number of types before adding it + 1)
+	public void addType(String modelName, float offsetY, float rotY, float scale) {
+		names.add(modelName);
+		positions.add(new Vector3f(0, offsetY, 0));
+		rotations.add(rotY);
+		scales.add(scale);
+	}
+
+	// Returns the number of types (cell values from 1 to this number are LoD models)
+	public int getNumTypes() {
+		return names.size();
+	}
+
+	// All the getters receive the index of the type (its number - 1)
+	public String getModelName(int type) {
+		return names.get(type);
+	}
+
+	public Vector3f getPosition(int type) {
+		return positions.get(type);
+	}
+
+	public float getRotY(int type) {
+		return rotations.get(type);
+	}
+
+	public float getScale(int type) {
+		return scales.get(type);
+	}
+
+}
@@ -0,0 +1,219 @@
+package terrain;
+
+import java.util.ArrayList;
+
+// Precise permissive field of view on the grid of a map (the algorithm of Jonathon Duerig): a cell is visible from
+// the source cell if a line from some point of the source to some point of the cell does not go through the inside
+// of a wall (lines only touching the sides or the corners of walls pass).
+//
+// Each quadrant around the source is swept along its diagonals keeping the views (wedges between a shallow and a
+// steep line) that are still open. When a wall is found inside a view, the view is narrowed, split in two or closed,
+// and the corners that narrowed it are remembered (bumps) so the lines always stay the widest ones possible.
+// The result is symmetric and contains every cell a random line between the two cells could find, so it is a
+// conservative version of the sampled visibility.
+//
+// Not thread safe: each thread needs its own instance.
+public class PermissiveFieldOfView {
+
+	private int[][] walls; // 1 for walls (as the terrain values of Visibility)
+	private int sizeX, sizeY;
+
+	// The sweep of the current quadrant
+	private ArrayList<View> views = new ArrayList<View>();
+	private int sourceX, sourceY, directionX, directionY;
+
+	// Where the visible cells go: the free cell at (x, y) is the column columns[x][y] of the row
+	private int[][] columns;
+	private CellVisibility visibility;
+	private int row;
+
+	// A line from (xi, yi) to (xf, yf), in coordinates relative to the source (quadrant of positive x and y)
+	private static class Line {
+		int xi, yi, xf, yf;
+
+		Line(int xi, int yi, int xf, int yf) {
+			this.xi = xi;
+			this.yi = yi;
+			this.xf = xf;
+			this.yf = yf;
+		}
+
+		// Positive if the point is below the line, negative if it is above, 0 if it is on it
+		long relativeSlope(int x, int y) {
+			return (long) (yf - yi) * (xf - x) - (long) (xf - xi) * (yf - y);
+		}
+
+		boolean isBelow(int x, int y) {
+			return relativeSlope(x, y) > 0;
+		}
+
+		boolean isBelowOrContains(int x, int y) {
+			return relativeSlope(x, y) >= 0;
+		}
+
+		boolean isAbove(int x, int y) {
+			return relativeSlope(x, y) < 0;
+		}
+
+		boolean isAboveOrContains(int x, int y) {
+			return relativeSlope(x, y) <= 0;
+		}
+
+		boolean contains(int x, int y) {
+			return relativeSlope(x, y) == 0;
+		}
+
+		boolean isCollinear(Line line) {
+			return contains(line.xi, line.yi) && contains(line.xf, line.yf);
+		}
+	}
+
+	// A corner that narrowed a view (they are never changed, so views split in two can share them)
+	private static class Bump {
+		int x, y;
+		Bump parent;
+
+		Bump(int x, int y, Bump parent) {
+			this.x = x;
+			this.y = y;
+			this.parent = parent;
+		}
+	}
+
+	// The wedge between a shallow and a steep line that is still visible
+	private static class View {
+		Line shallow, steep;
+		Bump shallowBump, steepBump;
+
+		View(Line shallow, Line steep) {
+			this.shallow = shallow;
+			this.steep = steep;
+		}
+
+		View copy() {
+			View view = new View(new Line(shallow.xi, shallow.yi, shallow.xf, shallow.yf),
+					new Line(steep.xi, steep.yi, steep.xf, steep.yf));
+			view.shallowBump = shallowBump;
+			view.steepBump = steepBump;
+			return view;
+		}
+	}
+
+	// The map is walls[x][y], from (0, 0) to (sizeX-1, sizeY-1)
+	public PermissiveFieldOfView(int[][] walls, int sizeX, int sizeY) {
+		this.walls = walls;
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+	}
+
+	// Sets on this row of the visibility the free cells visible from (x, y) (the free cell at (i, j) is the column
+	// columns[i][j], -1 for walls)
+	public void compute(int x, int y, int[][] columns, CellVisibility visibility, int row) {
+		this.columns = columns;
+		this.visibility = visibility;
+		this.row = row;
+
+		mark(x, y);
+		int extentLeft = x, extentRight = sizeX - x - 1, extentDown = y, extentUp = sizeY - y - 1;
+		sweepQuadrant(x, y, 1, 1, extentRight, extentUp);
+		sweepQuadrant(x, y, 1, -1, extentRight, extentDown);
+		sweepQuadrant(x, y, -1, -1, extentLeft, extentDown);
+		sweepQuadrant(x, y, -1, 1, extentLeft, extentUp);
+	}
+
+	// Sweeps the diagonals of a quadrant (extentX and extentY cells away from the source at most)
+	private void sweepQuadrant(int x, int y, int directionX, int directionY, int extentX, int extentY) {
+		this.sourceX = x;
+		this.sourceY = y;
+		this.directionX = directionX;
+		this.directionY = directionY;
+
+		views.clear();
+		views.add(new View(new Line(0, 1, extentX, 0), new Line(1, 0, 0, extentY)));
+		int maxI = extentX + extentY;
+		for (int i = 1; i <= maxI && !views.isEmpty(); i++) {
+			int startJ = Math.max(0, i - extentX), maxJ = Math.min(i, extentY);
+			for (int j = startJ; j <= maxJ && !views.isEmpty(); j++) {
+				visit(i - j, j);
+			}
+		}
+	}
+
+	// Visits the cell (x, y) of the quadrant (relative to the source), narrowing the views if it is a wall
+	private void visit(int x, int y) {
+		int topLeftX = x, topLeftY = y + 1, bottomRightX = x + 1, bottomRightY = y;
+
+		// The first view that is not completely below the cell
+		int index = 0;
+		while (index < views.size() && views.get(index).steep.isBelowOrContains(bottomRightX, bottomRightY)) {
+			index++;
+		}
+		if (index == views.size() || views.get(index).shallow.isAboveOrContains(topLeftX, topLeftY)) return; // Not in any view
+
+		int cellX = sourceX + x * directionX, cellY = sourceY + y * directionY;
+		mark(cellX, cellY);
+		if (walls[cellX][cellY] != 1) return;
+
+		View view = views.get(index);
+		boolean aboveShallow = view.shallow.isAbove(bottomRightX, bottomRightY);
+		boolean belowSteep = view.steep.isBelow(topLeftX, topLeftY);
+		if (aboveShallow && belowSteep) { // The wall closes the view
+			views.remove(index);
+		} else if (aboveShallow) { // The wall narrows the view from the shallow side
+			addShallowBump(topLeftX, topLeftY, view);
+			checkView(index);
+		} else if (belowSteep) { // The wall narrows the view from the steep side
+			addSteepBump(bottomRightX, bottomRightY, view);
+			checkView(index);
+		} else { // The wall is in the middle of the view, which is split in two
+			View steepView = view.copy();
+			views.add(index + 1, steepView);
+			addSteepBump(bottomRightX, bottomRightY, view);
+			if (!checkView(index)) index--;
+			addShallowBump(topLeftX, topLeftY, steepView);
+			checkView(index + 1);
+		}
+	}
+
+	private void addShallowBump(int x, int y, View view) {
+		view.shallow.xf = x;
+		view.shallow.yf = y;
+		view.shallowBump = new Bump(x, y, view.shallowBump);
+		for (Bump bump = view.steepBump; bump != null; bump = bump.parent) {
+			if (view.shallow.isAbove(bump.x, bump.y)) {
+				view.shallow.xi = bump.x;
+				view.shallow.yi = bump.y;
+			}
+		}
+	}
+
+	private void addSteepBump(int x, int y, View view) {
+		view.steep.xf = x;
+		view.steep.yf = y;
+		view.steepBump = new Bump(x, y, view.steepBump);
+		for (Bump bump = view.shallowBump; bump != null; bump = bump.parent) {
+			if (view.steep.isBelow(bump.x, bump.y)) {
+				view.steep.xi = bump.x;
+				view.steep.yi = bump.y;
+			}
+		}
+	}
+
+	// Removes the view if it has no width left (both lines are the same line through a corner of the source)
+	// Returns whether the view is still open
+	private boolean checkView(int index) {
+		View view = views.get(index);
+		if (view.shallow.isCollinear(view.steep) && (view.shallow.contains(0, 1) || view.shallow.contains(1, 0))) {
+			views.remove(index);
+			return false;
+		}
+		return true;
+	}
+
+	// Adds a visible cell to the row (only the free ones)
+	private void mark(int x, int y) {
+		int column = columns[x][y];
+		if (column != -1) visibility.set(row, column);
+	}
+
+}
@@ -0,0 +1,246 @@
+package terrain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Pages the visibility file of a map in and out by regions (squares of regionSize x regionSize cells), so only the
+// regions around the camera are kept in memory.
+//
+// The file is scanned once to know where the row of each cell is, and then the rows of a region are read (in a
+// background thread) when the camera gets close to it. Loaded regions are installed by the main thread, and when the
+// memory used goes over the cap, the regions furthest from the camera are evicted.
+// The region size is rounded up to a power of two, so the cells of a region have consecutive ids (see CellId) and
+// its rows and instances are contiguous ranges of the sorted indices.
+public class RegionStreamer {
+
+	private static final int UNLOADED = 0, LOADING = 1, RESIDENT = 2;
+	private static final int BYTES_PER_INSTANCE = 48; // Estimation of the LoD state of an active instance (store, heaps, ...)
+
+	private VisibilityTextFile textFile; // Its rows are read when their regions are loaded
+	private int regionShift; // Bits of a cell id below the id of its region
+	private int preloadRadius; // Regions around the one of the camera that are loaded (1 = 3x3 regions, 2 = 5x5, ...)
+	private long maxResidentBytes;
+	private long residentBytes = 0;
+
+	private CellIndex cellIndex; // The instances of each cell (to keep only the visible cells with instances)
+
+	private long[] rowCells; // The cell of each row of the file (sorted)
+	private CellVisibility visibility; // The slots (of the cell index) visible from each row (unset if its region is not resident)
+
+	private Map<Long, Region> regions = new HashMap<Long, Region>();
+	private ArrayList<Region> residentRegions = new ArrayList<Region>();
+	private long cameraRegion = -1;
+
+	private ExecutorService loader;
+	private ConcurrentLinkedQueue<Region> loadedRegions = new ConcurrentLinkedQueue<Region>(); // Waiting to be installed
+
+	private static class Region {
+		long id;
+		int state = UNLOADED;
+		int firstRow, endRow; // Its rows: from firstRow to endRow-1
+		int numInstances;
+		long bytes; // Memory used while resident
+		int[][] loadedRows; // The rows read by the loader, until they are installed
+	}
+
+	public RegionStreamer(String fileName, int regionSize, int preloadRadius, long maxResidentBytes, CellIndex cellIndex) {
+		this.preloadRadius = preloadRadius;
+		this.maxResidentBytes = maxResidentBytes;
+		this.cellIndex = cellIndex;
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(regionSize, 1) - 1);
+		this.regionShift = 2 * bits;
+
+		this.textFile = VisibilityTextFile.open(fileName);
+		this.rowCells = textFile.getRowCells();
+		this.visibility = new CellVisibility(rowCells, cellIndex.getNumCells());
+
+		// The regions with rows (the rows of a region are consecutive, as they are sorted by cell)
+		for (int row = 0; row < rowCells.length; row++) {
+			Region region = getOrCreateRegion(getRegion(rowCells[row]));
+			if (region.endRow == 0) region.firstRow = row;
+			region.endRow = row + 1;
+		}
+		// And the regions with instances
+		for (int slot = 0; slot < cellIndex.getNumCells(); slot++) {
+			getOrCreateRegion(getRegion(cellIndex.getCell(slot))).numInstances += cellIndex.getEnd(slot) - cellIndex.getStart(slot);
+		}
+
+		this.loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "RegionStreamer");
+				thread.setDaemon(true); // Never keeps the application alive
+				return thread;
+			}
+		});
+	}
+
+	private Region getOrCreateRegion(long id) {
+		Region region = regions.get(id);
+		if (region == null) {
+			region = new Region();
+			region.id = id;
+			regions.put(id, region);
+		}
+		return region;
+	}
+
+	// Returns the id of the region of a cell
+	public long getRegion(long cellId) {
+		return cellId >>> regionShift;
+	}
+
+	// Returns the first cell id of a region (the cells of the region go up to getFirstCell(region + 1), exclusive)
+	public long getFirstCell(long region) {
+		return region << regionShift;
+	}
+
+	// The visible slots of each row (the rows of the regions that are not resident are not set)
+	// It is updated in place when the regions are installed or evicted
+	public CellVisibility getVisibility() {
+		return visibility;
+	}
+
+	// Returns whether this cell has a row that is not in memory yet
+	public boolean isLoading(long cellId) {
+		int row = Arrays.binarySearch(rowCells, cellId);
+		return row >= 0 && !visibility.hasRow(row);
+	}
+
+	// Requests the regions around the camera (only when it enters another region)
+	public void update(float cameraX, float cameraZ) {
+		if (cameraX < 0 || cameraZ < 0) return;
+		long region = getRegion(CellId.encode((int) cameraX, (int) cameraZ));
+		if (region == cameraRegion) return;
+		cameraRegion = region;
+
+		int regionX = CellId.getX(region), regionZ = CellId.getZ(region);
+		for (int x = regionX - preloadRadius; x <= regionX + preloadRadius; x++) {
+			for (int z = regionZ - preloadRadius; z <= regionZ + preloadRadius; z++) {
+				if (x < 0 || z < 0) continue;
+				final Region requested = regions.get(CellId.encode(x, z));
+				if (requested == null || requested.state != UNLOADED) continue;
+				requested.state = LOADING;
+				loader.execute(new Runnable() {
+					public void run() {
+						requested.loadedRows = readRows(requested);
+						loadedRegions.add(requested);
+					}
+				});
+			}
+		}
+	}
+
+	// Loads the region of the camera without waiting for the loader (used for the first frame)
+	public void loadNow(float cameraX, float cameraZ) {
+		if (cameraX < 0 || cameraZ < 0) return;
+		Region region = regions.get(getRegion(CellId.encode((int) cameraX, (int) cameraZ)));
+		if (region == null || region.state != UNLOADED) return;
+		region.state = LOADING;
+		region.loadedRows = readRows(region);
+		loadedRegions.add(region);
+	}
+
+	// Installs the next region loaded in the background and returns its id (-1 if there is none)
+	public long installNext() {
+		Region region = loadedRegions.poll();
+		if (region == null) return -1;
+		region.bytes = (long) region.numInstances * BYTES_PER_INSTANCE;
+		for (int i = 0; i < region.loadedRows.length; i++) {
+			int row = region.firstRow + i;
+			visibility.setRow(row, region.loadedRows[i], region.loadedRows[i].length);
+			region.bytes += visibility.getRowBytes(row);
+		}
+		region.loadedRows = null;
+		region.state = RESIDENT;
+		residentRegions.add(region);
+		residentBytes += region.bytes;
+		return region.id;
+	}
+
+	// If the memory used is over the cap, evicts the resident region furthest from the camera and returns its id
+	// (-1 if nothing has to be evicted). The region of the camera is never evicted
+	public long evictNext() {
+		if (residentBytes <= maxResidentBytes) return -1;
+		int cameraX = CellId.getX(cameraRegion), cameraZ = CellId.getZ(cameraRegion);
+		int furthest = -1;
+		long maxDistance = 0;
+		for (int i = 0; i < residentRegions.size(); i++) {
+			long id = residentRegions.get(i).id;
+			long distance = Math.max(Math.abs((long) CellId.getX(id) - cameraX), Math.abs((long) CellId.getZ(id) - cameraZ));
+			if (distance > maxDistance) {
+				maxDistance = distance;
+				furthest = i;
+			}
+		}
+		if (furthest == -1) return -1;
+
+		Region region = residentRegions.get(furthest);
+		residentRegions.set(furthest, residentRegions.get(residentRegions.size() - 1));
+		residentRegions.remove(residentRegions.size() - 1);
+		for (int row = region.firstRow; row < region.endRow; row++) {
+			visibility.clearRow(row);
+		}
+		residentBytes -= region.bytes;
+		region.state = UNLOADED;
+		return region.id;
+	}
+
+	// Reads the rows of a region and converts them into slots of the cell index
+	private int[][] readRows(Region region) {
+		int[][] regionRows = new int[region.endRow - region.firstRow][];
+		long[] cells = new long[16];
+		int[] slots = new int[16];
+		for (int row = region.firstRow; row < region.endRow; row++) {
+			int maxLength = textFile.getMaxRowLength(row);
+			if (maxLength > cells.length) {
+				cells = new long[Math.max(maxLength, cells.length * 2)];
+				slots = new int[cells.length];
+			}
+			int numCells = textFile.readRow(row, cells);
+			int numSlots = 0;
+			for (int i = 0; i < numCells; i++) {
+				int slot = cellIndex.find(cells[i]);
+				if (slot != -1) slots[numSlots++] = slot;
+			}
+			regionRows[row - region.firstRow] = Arrays.copyOf(slots, numSlots);
+		}
+		return regionRows;
+	}
+
+	public int getNumResidentRegions() {
+		return residentRegions.size();
+	}
+
+	// Returns the id of a resident region (from 0 to getNumResidentRegions()-1)
+	public long getResidentRegion(int index) {
+		return residentRegions.get(index).id;
+	}
+
+	// Returns the memory used by the resident regions (estimated, in bytes)
+	public long getResidentBytes() {
+		return residentBytes;
+	}
+
+	public long getMaxResidentBytes() {
+		return maxResidentBytes;
+	}
+
+	// Stops the loader (the regions being loaded are discarded)
+	public void shutdown() {
+		loader.shutdownNow();
+		try {
+			loader.awaitTermination(1, TimeUnit.MINUTES); // The region being read is finished before closing the file
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		textFile.close();
+	}
+
+}
@@ -5,58 +5,211 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.Set;
 
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
 import entities.Entity;
+import entities.InstanceStore;
 import entities.LODEntity;
+import lodPolicy.ContributionLodPolicy;
+import lodPolicy.LodPolicy;
 import models.LODModel;
 import models.RawModel;
 import models.TexturedModel;
 import objFileLoader.ObjFileLoader;
 import render.Loader;
 import textures.ModelTexture;
+import toolbox.IndexedMaxHeap;
 
 public class Terrain {
 	
 	private static final String RES_LOC = "res/";
 	
-	private static final Integer MAX_TRIANGLES = 120000; // maximum number of triangles to be rendered at one frame
-	private static final Integer MAX_HYSTERESIS = 100; // number of frames before an instance can change its level of detail
+	private static final int MAX_TRIANGLES = 120000; // default maximum number of triangles to be rendered at one frame
+	private static final int MAX_HYSTERESIS = 100; // number of frames before an instance can change its level of detail
+	private static final long DEFAULT_SOLVER_TIME_SLICE = 1000000; // 1 ms per frame to change levels of detail
+	private static final float DEFAULT_FRAME_TIME = 1/60f; // frame time assumed if the real one is not given (in seconds)
 	
 	private ArrayList<LODEntity> objects; // All the objects from the scene
 	private ArrayList<Entity> walls; // The walls (Floor included)
+	private int mapSizeX, mapSizeZ; // Number of cells of the map along each axis
 	
-	private ArrayList<Float> contributionUp = new ArrayList<Float>(); // difference in contribution with the +1 level of detail
-	private ArrayList<Float> contributionDown = new ArrayList<Float>(); // difference in contribution with the -1 level of detail
-
-	// The number of frames for each instance before they can change their level of detail
-	private ArrayList<Integer> hysteresisValue = new ArrayList<Integer>();
+	// Per-instance state of all the LoD entities (contributions, hysteresis, visibility, ...) indexed by global id
+	private InstanceStore instances = new InstanceStore();
+	
+	// Visible instances ordered by their contribution up / down, updated only when a contribution changes
+	private IndexedMaxHeap contributionUpHeap;
+	private IndexedMaxHeap contributionDownHeap;
+	
+	// Benefit, cost and ordering of the LoD changes (the contributions are its priorities)
+	private LodPolicy policy = new ContributionLodPolicy();
+	private boolean contributionsComputed = false;
+	
+	// Instances waiting for their hysteresis to end, in the order they changed their LoD (circular queue)
+	private int[] hysteresisQueue;
+	private int hysteresisHead = 0, hysteresisCount = 0;
+	
+	// The hysteresis compares the stamp of the last LoD change of each instance with a clock (no per-frame countdown)
+	// The clock counts frames, or milliseconds since the terrain was created if the hysteresis is measured in time
+	private int frameCount = 0;
+	private int lodChanges = 0; // Number of LoD changes done in the last frame
+	private int hysteresisFrames = MAX_HYSTERESIS;
+	private int hysteresisMillis = 0; // If greater than 0, the hysteresis is measured in milliseconds instead of frames
+	private long creationTime = System.nanoTime();
+	
+	// Prediction of the camera movement, to refine ahead of time the instances that will be visible from the next cell
+	private CameraPredictor predictor = new CameraPredictor();
+	private float predictionTime = 0; // How far ahead the camera is predicted (in seconds, 0 disables the prediction)
+	private float lastFrameTime = DEFAULT_FRAME_TIME;
+	private boolean predictionActive = false;
+	private long predictedCell; // The cell the camera is going to, if the prediction is active
+	
+	// Instances visible from the predicted cell (and a stamp per instance to know if it belongs to this set)
+	private int[] predictedInstances;
+	private int numPredictedInstances = 0;
+	private int[] predictionStamp;
+	private int currentPredictionStamp = 1; // The stamps of the instances start at 0, so none of them is predicted yet
+	private IndexedMaxHeap predictedUpHeap; // The predicted instances that are not visible yet, ordered by contribution up
+	private double predictedCost = 0; // Cost (given by the policy) of the predicted instances that are not visible yet
+	
+	// Maximum cost to be rendered at one frame (retuned every frame if there is a budget controller)
+	// The cost is the one of the policy, so with the default policies the budget is a number of triangles
+	private int triangleBudget = MAX_TRIANGLES;
+	private double sceneCost = 0; // Cost (given by the policy) of the visible instances
+	private BudgetController budgetController = null;
 	
-	// The cells that are visible from the current point of view (the current cell, to be precise)
-	private Map<Integer, Set<Integer>> visibleCells = new HashMap<Integer, Set<Integer>>();
-	private ArrayList<Boolean> objectVisibility = new ArrayList<Boolean>(); // Whether each object is visible now
+	// Whether timeCriticalRendering can change more than one instance per frame to reach the triangle budget
+	private boolean multipleChangesPerFrame = false;
+	private long solverTimeSlice = DEFAULT_SOLVER_TIME_SLICE; // Maximum time (in ns) spent changing LoDs each frame
 	
-	Integer objectId, instanceId;
+	// The cells that are visible from each cell (only the ones with instances, as slots of the cell index)
+	private CellVisibility visibility; // The rows of the visibility file (columns are slots of the cell index)
+	private VisibilityFile visibilityFile; // Binary file whose rows are decoded the first time they are used (or null)
+	private long[] decodedRow = new long[16]; // The cell ids of the last row decoded
+	private VisibilityCache visibilityCache; // Where the visibility comes from, if it is generated for the map (or null)
+	private long[] instanceCells; // The cell ID of each instance (they never move)
+	private CellIndex cellIndex; // The instances inside each cell
+	private RegionStreamer streamer; // Pages the visibility and the LoD state by regions (null if everything is in memory)
+	
+	// The instances visible from the current cell (and a stamp per instance to know if it is still visible)
+	private int[] visibleInstances, previousVisibleInstances;
+	private int numVisibleInstances = 0;
+	private int[] visibilityStamp;
+	private int currentStamp = 0;
+	private long cameraCell; // The cell ID of the camera when the visibility was last computed
+	private boolean visibilityComputed = false;
+	
+	private int[] instanceObjects; // The index (in objects) of the LoD entity of each instance
 
 	
+	// The model types of the map are read from the file mapName + "models" if it exists (tea, meta and dragon otherwise)
 	public Terrain (Loader loader, String mapName, String visibilityName, Vector3f cameraPos) {
 		this.objects = new ArrayList<LODEntity>();
 		this.walls = new ArrayList<Entity>();
 		
-		readMapFile(loader, mapName);
+		String catalogueName = mapName + "models";
+		readMapFile(loader, mapName, ModelCatalogue.exists(catalogueName) ? ModelCatalogue.read(catalogueName) : ModelCatalogue.getDefault());
 		readVisibilityFile(visibilityName);
+		initialize(cameraPos);
+	}
+	
+	// Same as above, but the visibility is the one cached for the current contents of the map (see VisibilityCache)
+	// If it is not cached yet, it is generated in the background and every instance is visible until it is ready
+	public Terrain (Loader loader, String mapName, Vector3f cameraPos) {
+		this.objects = new ArrayList<LODEntity>();
+		this.walls = new ArrayList<Entity>();
+		
+		String catalogueName = mapName + "models";
+		readMapFile(loader, mapName, ModelCatalogue.exists(catalogueName) ? ModelCatalogue.read(catalogueName) : ModelCatalogue.getDefault());
+		this.visibilityCache = new VisibilityCache(mapName);
+		if (visibilityCache.isReady()) {
+			openVisibilityFile(visibilityCache.getFileName());
+		} else {
+			visibilityCache.generateInBackground();
+		}
+		initialize(cameraPos);
+	}
+	
+	// Same as the first one, but the visibility file is not loaded at once: it is paged by regions of regionSize x regionSize
+	// cells around the camera (loaded in the background), and only the instances of the regions in memory change
+	// their LoD (the rest stay at the lowest one). The regions up to preloadRadius regions away from the one of the camera
+	// are loaded (1 = 3x3 regions), and the furthest ones are evicted when more than maxResidentBytes are used
+	// cleanUp has to be called once the terrain is not used any more, to stop the loader
+	public Terrain (Loader loader, String mapName, String visibilityName, Vector3f cameraPos, int regionSize, int preloadRadius,
+			long maxResidentBytes) {
+		this.objects = new ArrayList<LODEntity>();
+		this.walls = new ArrayList<Entity>();
+		
+		String catalogueName = mapName + "models";
+		readMapFile(loader, mapName, ModelCatalogue.exists(catalogueName) ? ModelCatalogue.read(catalogueName) : ModelCatalogue.getDefault());
+		this.streamer = new RegionStreamer(RES_LOC + visibilityName + ".txt", regionSize, preloadRadius, maxResidentBytes, cellIndex);
+		this.visibility = streamer.getVisibility(); // Its rows are filled when the regions are installed
+		initialize(cameraPos);
+	}
+	
+	// Creates the terrain from a map already in memory (the cell values in the same order as the map file) and the
+	// cells visible from each cell (rows shared by several cells are only converted once)
+	public Terrain (Loader loader, int xSize, int ySize, int[] cellValues, Map<Long, long[]> visibility, Vector3f cameraPos) {
+		this(loader, xSize, ySize, cellValues, ModelCatalogue.getDefault(), visibility, cameraPos);
+	}
+	
+	// Same as above, with the model types given by a catalogue
+	public Terrain (Loader loader, int xSize, int ySize, int[] cellValues, ModelCatalogue catalogue,
+			Map<Long, long[]> visibility, Vector3f cameraPos) {
+		this.objects = new ArrayList<LODEntity>();
+		this.walls = new ArrayList<Entity>();
+		
+		createMap(loader, xSize, ySize, cellValues, catalogue);
+		long[] cells = new long[visibility.size()];
+		int numRows = 0;
+		for (Long cell : visibility.keySet()) {
+			cells[numRows++] = cell;
+		}
+		this.visibility = new CellVisibility(sortCells(cells, numRows), cellIndex.getNumCells());
+		Map<long[], Integer> convertedRows = new IdentityHashMap<long[], Integer>();
+		for (Map.Entry<Long, long[]> entry : visibility.entrySet()) {
+			int row = this.visibility.findRow(entry.getKey());
+			Integer convertedRow = convertedRows.get(entry.getValue());
+			if (convertedRow != null) {
+				this.visibility.shareRow(row, convertedRow);
+			} else {
+				int[] slots = convertToSlots(entry.getValue(), entry.getValue().length);
+				this.visibility.setRow(row, slots, slots.length);
+				convertedRows.put(entry.getValue(), row);
+			}
+		}
+		initialize(cameraPos);
+	}
+	
+	// Prepares the per-instance structures and computes the first frame
+	private void initialize(Vector3f cameraPos) {
+		this.contributionUpHeap = new IndexedMaxHeap(instances.size());
+		this.contributionDownHeap = new IndexedMaxHeap(instances.size());
+		this.hysteresisQueue = new int[Math.max(instances.size(), 1)];
+		this.visibleInstances = new int[instances.size()];
+		this.previousVisibleInstances = new int[instances.size()];
+		this.predictedInstances = new int[instances.size()];
+		this.predictionStamp = new int[instances.size()];
+		this.predictedUpHeap = new IndexedMaxHeap(instances.size());
+		this.visibilityStamp = new int[instances.size()];
+		if (streamer != null) { // Nothing is active until its region is in memory (the one of the camera is loaded now)
+			for (int id = 0; id < instances.size(); id++) {
+				instances.setActive(id, false);
+			}
+			streamer.loadNow(cameraPos.x, cameraPos.z);
+			updateStreaming(cameraPos);
+		}
 		updateContributionLists(cameraPos);
 		updateObjectVisibility(cameraPos);
 	}
 	
 	// Reads the file corresponding to the map and object distribution
-	private void readMapFile(Loader loader, String mapName) {
+	private void readMapFile(Loader loader, String mapName, ModelCatalogue catalogue) {
 		FileReader isr = null;
 		File objFile = new File(RES_LOC + mapName + ".txt");
 		try {
@@ -68,29 +221,8 @@ public class Terrain {
 		
 		BufferedReader reader = new BufferedReader(isr);
 		String line;
-		Integer cellValue;
 		Integer xSize = 0, ySize = 0;
-		
-		// Model 1 (Red on the picture) = Tea model
-		LODModel lodmodel1 = new LODModel(loadModel("teaCompressionLvl3", "lod0", loader), loadModel("teaCompressionLvl4", "lod1", loader),
-				loadModel("teaCompressionLvl5", "lod2", loader), loadModel("teaCompressionLvl6", "lod3", loader),
-				loadModel("tea", "lod4", loader));
-		LODEntity lodentity1 = new LODEntity(lodmodel1, new Vector3f(0, 0, 0), 30, 0.15f);
-		
-		// Model 2 (Green on the picture) = Meta model
-		LODModel lodmodel2 = new LODModel(loadModel("metaCompressionLvl3", "lod0", loader), loadModel("metaCompressionLvl4", "lod1", loader),
-				loadModel("metaCompressionLvl5", "lod2", loader), loadModel("metaCompressionLvl6", "lod3", loader),
-				loadModel("meta", "lod4", loader));
-		LODEntity lodentity2 = new LODEntity(lodmodel2, new Vector3f(0, 0.3f, 0), 0, 0.25f);
-		
-		// Model 3 (Blue on the picture) = Dragon model
-		LODModel lodmodel3 = new LODModel(loadModel("dragonCompressionLvl3", "lod0", loader), loadModel("dragonCompressionLvl4", "lod1", loader),
-				loadModel("dragonCompressionLvl5", "lod2", loader), loadModel("dragonCompressionLvl6", "lod3", loader),
-				loadModel("dragon", "lod4", loader));
-		LODEntity lodentity3 = new LODEntity(lodmodel3, new Vector3f(0, 0, 0), 30, 0.15f);
-		
-		// The walls
-		Entity ewalls = new Entity(loadModel("wall", "wall", loader), new Vector3f(0, 0, 0), 0, 1f);
+		int[] cellValues = new int[0];
 		
 		try {
 			// Map dimensions
@@ -99,27 +231,12 @@ public class Terrain {
 			line = reader.readLine();
 			ySize = (Integer) Integer.valueOf(line);
 			
-			Float xPos = 0.5f, yPos = 0.5f; // Center of the current cell
-			
+			// The value of each cell, row by row
+			cellValues = new int[xSize*ySize];
+			int numCells = 0;
 			line = reader.readLine();
-			while (line != null) {
-				cellValue = (Integer) Integer.valueOf(line);
-				
-				// Add instances to the entities in the correct position
-				if (cellValue == 0) ewalls.addInstance(new Vector2f(xPos, yPos));
-				if (cellValue == 1) lodentity1.addInstance(new Vector2f(xPos, yPos));
-				if (cellValue == 2) lodentity2.addInstance(new Vector2f(xPos, yPos));
-				if (cellValue == 3) lodentity3.addInstance(new Vector2f(xPos, yPos));
-				
-				if (cellValue > 0 && cellValue < 4) hysteresisValue.add(0); // If its an lodentity add a hysteresis value
-					
-				// Move along the map
-				xPos += 1;
-				if (xPos > ySize) {
-					xPos = 0.5f;
-					yPos += 1;
-				}
-				
+			while (line != null && numCells < cellValues.length) {
+				cellValues[numCells++] = Integer.parseInt(line);
 				line = reader.readLine();
 			}
 			reader.close();
@@ -128,230 +245,566 @@ public class Terrain {
 			System.exit(-1);
 		}
 		
+		createMap(loader, xSize, ySize, cellValues, catalogue);
+	}
+	
+	// Creates the entities of the map and places their instances (xSize rows of ySize cells)
+	// Cell values: 0 = wall, from 1 to the number of types of the catalogue = one of the LoD models, anything else = empty
+	private void createMap(Loader loader, int xSize, int ySize, int[] cellValues, ModelCatalogue catalogue) {
+		int numTypes = catalogue.getNumTypes();
+		
+		// One LoD entity per model type (the models shared by several types are only loaded once)
+		Map<String, TexturedModel> loadedModels = new HashMap<String, TexturedModel>();
+		LODEntity[] entities = new LODEntity[numTypes];
+		for (int type = 0; type < numTypes; type++) {
+			String name = catalogue.getModelName(type);
+			LODModel lodmodel = new LODModel(loadModel(name + "CompressionLvl3", "lod0", loader, loadedModels),
+					loadModel(name + "CompressionLvl4", "lod1", loader, loadedModels),
+					loadModel(name + "CompressionLvl5", "lod2", loader, loadedModels),
+					loadModel(name + "CompressionLvl6", "lod3", loader, loadedModels),
+					loadModel(name, "lod4", loader, loadedModels));
+			entities[type] = new LODEntity(lodmodel, instances, new Vector3f(catalogue.getPosition(type)),
+					catalogue.getRotY(type), catalogue.getScale(type));
+		}
+		
+		// The walls
+		Entity ewalls = new Entity(loadModel("wall", "wall", loader), new Vector3f(0, 0, 0), 0, 1f);
+		
+		// The ids of the instances of each LoD entity must be contiguous, so the cells are grouped by type first
+		// Inside each type, the instances follow the order of their cell ids (close cells get close ids)
+		int[] typeStart = new int[numTypes + 1];
+		for (int cellValue : cellValues) {
+			if (cellValue >= 1 && cellValue <= numTypes) typeStart[cellValue]++;
+		}
+		for (int type = 0; type < numTypes; type++) {
+			typeStart[type + 1] += typeStart[type];
+		}
+		long[] sortedCells = new long[typeStart[numTypes]];
+		int[] next = Arrays.copyOf(typeStart, numTypes);
+		
+		for (int cell = 0; cell < cellValues.length; cell++) {
+			int cellValue = cellValues[cell];
+			if (cellValue == 0) ewalls.addInstance(new Vector2f(cell % ySize + 0.5f, cell / ySize + 0.5f));
+			else if (cellValue >= 1 && cellValue <= numTypes) sortedCells[next[cellValue - 1]++] = CellId.encode(cell % ySize, cell / ySize);
+		}
+		
+		// Add the instances to the LoD entities (one entity after the other), remembering the entity of each instance
+		instanceObjects = new int[sortedCells.length];
+		for (int type = 0; type < numTypes; type++) {
+			Arrays.sort(sortedCells, typeStart[type], typeStart[type + 1]);
+			for (int i = typeStart[type]; i < typeStart[type + 1]; i++) {
+				long cell = sortedCells[i];
+				instanceObjects[instances.size()] = type;
+				entities[type].addInstance(new Vector2f(CellId.getX(cell) + 0.5f, CellId.getZ(cell) + 0.5f));
+			}
+			objects.add(entities[type]);
+		}
+		
+		// Size of the map in world units (the rows of the file go along z)
+		mapSizeX = ySize;
+		mapSizeZ = xSize;
+		
 		// Create the floor (terrain)
 		Entity terrain = new Entity(loadModel("floor", "floor", loader), new Vector3f(0, 0, 0), 0, xSize > ySize ? xSize : ySize);
 		terrain.addInstance(new Vector2f(ySize/2, xSize/2));
 		
-		// Add the LoD entities
-		objects.add(lodentity1);
-		objects.add(lodentity2);
-		objects.add(lodentity3);
-		
 		// Add the entities
 		walls.add(terrain);
 		walls.add(ewalls);
 		
+		// Build the spatial index (cell -> instances inside it)
+		computeInstanceCells();
+		cellIndex = new CellIndex(instanceCells);
+		
 	}
 	
 	// Reads the visibility file and stores it for further use
+	// Files written before the cell ids were Morton codes (x*1000+z, without the tag on the header) are converted
+	// (see VisibilityTextFile). If there is an up to date binary version of the file (see VisibilityFile), it is mapped instead and nothing
+	// else is read until the camera enters each cell
 	private void readVisibilityFile(String fileName) {
-		FileReader isr = null;
-		File objFile = new File(RES_LOC + fileName + ".txt");
-		try {
-			isr = new FileReader(objFile);
-		} catch (FileNotFoundException e) {
-			System.err.println("File not found in res folder!");
-			System.exit(-1);
+		if (VisibilityFile.isUpToDate(fileName)) {
+			openVisibilityFile(RES_LOC + fileName + VisibilityFile.EXTENSION);
+			return;
 		}
 		
-		BufferedReader reader = new BufferedReader(isr);
-		String line;
-		Integer cellValue;
-		Set<Integer> visibleCells;
-		
-		try {
-			
-			line = reader.readLine();
-			line = reader.readLine();
-			
-			while (line != null) {
-				cellValue = (Integer) Integer.valueOf(line); // The current cell
-				
-				line = reader.readLine();
-				String[] currentLine = line.split(",");
-				visibleCells = new HashSet<Integer>();
-				for (int i = 0; i < currentLine.length; i++) { // Read all the visible cells from the current cell
-					visibleCells.add(Integer.parseInt(currentLine[i]));
-				}
-				
-				this.visibleCells.put(cellValue, visibleCells); // And store them
-
-				line = reader.readLine();
-				
+		// Only the cells with a row are stored, so the size depends on the free cells, not on the size of the map
+		VisibilityTextFile textFile = VisibilityTextFile.open(RES_LOC + fileName + ".txt");
+		visibility = new CellVisibility(textFile.getRowCells(), cellIndex.getNumCells());
+		for (int row = 0; row < textFile.getNumRows(); row++) {
+			int maxLength = textFile.getMaxRowLength(row);
+			if (maxLength > decodedRow.length) decodedRow = new long[Math.max(maxLength, decodedRow.length * 2)];
+			int[] slots = convertToSlots(decodedRow, textFile.readRow(row, decodedRow));
+			visibility.setRow(row, slots, slots.length);
+		}
+		textFile.close();
+	}
+	
+	// Maps a binary visibility file (its rows are decoded the first time they are used)
+	private void openVisibilityFile(String fileName) {
+		visibilityFile = VisibilityFile.open(fileName);
+		visibility = new CellVisibility(visibilityFile.getRowCells(), cellIndex.getNumCells());
+	}
+	
+	// Starts using the visibility of the cache when its generation ends (until then, visibility is null)
+	private void updateVisibilityCache() {
+		if (visibility != null || !visibilityCache.isReady()) return;
+		openVisibilityFile(visibilityCache.getFileName());
+		visibilityComputed = false; // The visible instances are computed again, even if the camera is in the same cell
+	}
+	
+	// Returns the first numCells cell IDs sorted and without duplicates, so they can be found with a binary search
+	private static long[] sortCells(long[] cells, int numCells) {
+		long[] sorted = Arrays.copyOf(cells, numCells);
+		Arrays.sort(sorted);
+		int numDifferent = 0;
+		for (int i = 0; i < numCells; i++) {
+			if (i == 0 || sorted[i] != sorted[i-1]) sorted[numDifferent++] = sorted[i];
+		}
+		return Arrays.copyOf(sorted, numDifferent);
+	}
+	
+	// Returns the row of the visibility of a cell (-1 if it has none), decoding it from the binary file if needed
+	private int findVisibleRow(long cellId) {
+		if (visibility == null) return -1; // Still being generated
+		int row = visibility.findRow(cellId);
+		if (row != -1 && visibilityFile != null && !visibility.hasRow(row)) {
+			int length = visibilityFile.getRowLength(row);
+			if (length > decodedRow.length) decodedRow = new long[Math.max(length, decodedRow.length * 2)];
+			int[] slots = convertToSlots(decodedRow, visibilityFile.readRow(row, decodedRow));
+			visibility.setRow(row, slots, slots.length);
+		}
+		return row;
+	}
+	
+	// Converts a list of visible cell IDs into slots of the cell index
+	// Only the cells with instances are kept (the rest can't make anything visible)
+	private int[] convertToSlots(long[] cellIds, int numCells) {
+		int[] slots = new int[numCells];
+		int numSlots = 0;
+		for (int i = 0; i < numCells; i++) {
+			int slot = cellIndex.find(cellIds[i]);
+			if (slot != -1) slots[numSlots++] = slot;
+		}
+		return Arrays.copyOf(slots, numSlots);
+	}
+	
+	// Computes the cell ID of every instance (only once, the instances never move)
+	private void computeInstanceCells() {
+		instanceCells = new long[instances.size()];
+		for (int i = 0; i < objects.size(); i++) {
+			LODEntity object = objects.get(i);
+			for (int j = 0; j < object.getNumInstances(); j++) {
+				instanceCells[object.getFirstInstance() + j] = convertPosToCellId(object.getPosition().x + object.getOffsetX(j),
+						object.getPosition().z + object.getOffsetZ(j));
 			}
-			reader.close();
-		} catch (Exception e) {
-			System.err.println("Error reading the Visibility file");
-			System.exit(-1);
 		}
-		
 	}
 	
 	// Updates both contributions lists (depending on the camera position and the current LoD of each instance)
+	// Nothing is recomputed unless the policy asks for it (for example, if the camera has not moved since the last update)
 	public void updateContributionLists(Vector3f cameraPos) {
-		Float d, dist, contribution;
-		Integer instanceLoD;
-		Vector3f objPos;
+		if (!policy.beginFrame(cameraPos) && contributionsComputed) return;
+		contributionsComputed = true;
 		
-		contributionDown.clear();
-		contributionUp.clear();
+		if (streamer != null) { // Only the instances of the regions in memory
+			for (int i = 0; i < streamer.getNumResidentRegions(); i++) {
+				long region = streamer.getResidentRegion(i);
+				int end = cellIndex.getStart(cellIndex.findFirst(streamer.getFirstCell(region + 1)));
+				for (int k = cellIndex.getStart(cellIndex.findFirst(streamer.getFirstCell(region))); k < end; k++) {
+					int id = cellIndex.getInstance(k);
+					updateContribution(getObjectOf(id), id);
+				}
+			}
+			return;
+		}
 		
 		for (int i = 0; i < objects.size(); i++) {
-			d = objects.get(i).getDiagonal(); // All instances have the same bounding box
-			for (int j = 0; j < objects.get(i).getNumInstances(); j++) {
-				// The position of this instance
-				objPos = new Vector3f(objects.get(i).getPosition().x + objects.get(i).getOffSets().get(j).x,
-									  objects.get(i).getPosition().y,
-									  objects.get(i).getPosition().z + objects.get(i).getOffSets().get(j).y);
-				// Its distance from the camera
-				dist = (float) Math.sqrt((objPos.x-cameraPos.x)*(objPos.x-cameraPos.x) + (objPos.y-cameraPos.y)*(objPos.y-cameraPos.y) +
-						(objPos.z-cameraPos.z)*(objPos.z-cameraPos.z));
-				
-				instanceLoD = objects.get(i).getLoDofInstance(j); // LoD of the instance
-				contribution = (float) (d/(dist*Math.pow(2.0, instanceLoD))); // Its contribution at this level of detail
-				
-				// If possible, calculate the contribution if reducing 1 level of detail
-				if (instanceLoD == 0) contributionDown.add(null);
-				else contributionDown.add( (float) (contribution - d/(dist*(Math.pow(2.0, instanceLoD-1)))) );
-				
-				// If possible, calculate the contribution if increasing 1 level of detail
-				if (instanceLoD == 4) contributionUp.add(null);
-				else contributionUp.add( (float) (contribution - d/(dist*(Math.pow(2.0, instanceLoD+1)))) );
+			LODEntity object = objects.get(i);
+			for (int j = 0; j < object.getNumInstances(); j++) {
+				updateContribution(object, object.getFirstInstance() + j);
 			}
 		}
 		
 	}
 	
+	// Installs the regions loaded in the background (their instances start changing their LoD) and evicts the
+	// furthest ones if the memory cap is exceeded (their instances go back to the lowest LoD)
+	private void updateStreaming(Vector3f cameraPos) {
+		streamer.update(cameraPos.x, cameraPos.z);
+		long region;
+		while ((region = streamer.installNext()) != -1) {
+			setRegionActive(region, true);
+		}
+		while ((region = streamer.evictNext()) != -1) {
+			setRegionActive(region, false);
+		}
+	}
+	
+	// Starts or stops managing the LoD of the instances of a region
+	private void setRegionActive(long region, boolean active) {
+		int end = cellIndex.getStart(cellIndex.findFirst(streamer.getFirstCell(region + 1)));
+		for (int k = cellIndex.getStart(cellIndex.findFirst(streamer.getFirstCell(region))); k < end; k++) {
+			int id = cellIndex.getInstance(k);
+			LODEntity object = getObjectOf(id);
+			instances.setActive(id, active);
+			if (active) {
+				updateContribution(object, id);
+				updateHeaps(id);
+			} else {
+				int lod = instances.getLoD(id);
+				if (lod > 0) { // Back to the lowest LoD, with the cost of a visible or predicted instance
+					double change = policy.cost(object, 0) - policy.cost(object, lod);
+					if (instances.isVisible(id)) sceneCost += change;
+					else if (isPredicted(id)) predictedCost += change;
+					object.changeLoDofInstance(id - object.getFirstInstance(), 0);
+				}
+				instances.setContributionUp(id, Float.NaN);
+				instances.setContributionDown(id, Float.NaN);
+				updateHeaps(id);
+			}
+		}
+	}
+	
+	// Computes both contributions of one instance (with the last camera position) and updates the heaps if they changed
+	private void updateContribution(LODEntity object, int id) {
+		// The position of this instance
+		float objX = object.getPosition().x + instances.getX(id);
+		float objY = object.getPosition().y;
+		float objZ = object.getPosition().z + instances.getZ(id);
+		
+		int instanceLoD = instances.getLoD(id); // LoD of the instance
+		float down, up;
+		
+		// If possible, calculate the contribution if reducing 1 level of detail
+		if (instanceLoD == 0) down = Float.NaN;
+		else down = policy.downPriority(object, instanceLoD, objX, objY, objZ);
+		
+		// If possible, calculate the contribution if increasing 1 level of detail
+		if (instanceLoD == 4) up = Float.NaN;
+		else up = policy.upPriority(object, instanceLoD, objX, objY, objZ);
+		
+		boolean changed = Float.compare(down, instances.getContributionDown(id)) != 0
+				|| Float.compare(up, instances.getContributionUp(id)) != 0;
+		instances.setContributionDown(id, down);
+		instances.setContributionUp(id, up);
+		if (changed) updateHeaps(id);
+	}
+	
+	// Places the instance in the heaps it belongs to
+	// Only visible instances that can change their LoD (and are not waiting for the hysteresis) are candidates
+	private void updateHeaps(int id) {
+		boolean visible = instances.isVisible(id) && isHysteresisOver(id) && instances.isActive(id);
+		float up = instances.getContributionUp(id), down = instances.getContributionDown(id);
+		
+		if (visible && !Float.isNaN(up)) contributionUpHeap.update(id, up);
+		else contributionUpHeap.remove(id);
+		
+		if (visible && !Float.isNaN(down)) contributionDownHeap.update(id, down);
+		else contributionDownHeap.remove(id);
+		
+		// Instances that are not visible yet, but will be from the predicted cell
+		boolean predicted = isPredicted(id) && !instances.isVisible(id) && isHysteresisOver(id) && instances.isActive(id);
+		if (predicted && !Float.isNaN(up)) predictedUpHeap.update(id, up);
+		else predictedUpHeap.remove(id);
+	}
+	
+	// Returns whether the instance is visible from the predicted cell
+	private boolean isPredicted(int id) {
+		return predictionActive && predictionStamp[id] == currentPredictionStamp;
+	}
+	
+	// Predicts the next position of the camera and, if it is in another cell, gathers the instances visible from there
+	private void updatePrediction(Vector3f cameraPos) {
+		predictor.record(cameraPos.x, cameraPos.z, lastFrameTime);
+		if (predictionTime <= 0 || !predictor.isMoving()) {
+			clearPrediction();
+			return;
+		}
+		
+		long cell = convertPosToCellId(predictor.predictX(predictionTime), predictor.predictZ(predictionTime));
+		if (cell == convertPosToCellId(cameraPos)) { // Still in the same cell, nothing new will be visible
+			clearPrediction();
+			return;
+		}
+		if (predictionActive && cell == predictedCell) return;
+		
+		clearPrediction();
+		int row = findVisibleRow(cell);
+		if (row == -1 || !visibility.hasRow(row)) return;
+		
+		predictionActive = true;
+		predictedCell = cell;
+		for (int slot = visibility.nextVisible(row, 0); slot != -1; slot = visibility.nextVisible(row, slot + 1)) {
+			for (int k = cellIndex.getStart(slot); k < cellIndex.getEnd(slot); k++) {
+				int id = cellIndex.getInstance(k);
+				predictedInstances[numPredictedInstances++] = id;
+				predictionStamp[id] = currentPredictionStamp;
+				if (!instances.isVisible(id)) {
+					predictedCost += getCostOf(id);
+					updateHeaps(id);
+				}
+			}
+		}
+	}
+	
+	// Forgets the instances of the last prediction
+	private void clearPrediction() {
+		if (!predictionActive) return;
+		predictionActive = false;
+		currentPredictionStamp++;
+		numPredictedInstances = 0;
+		predictedCost = 0;
+		predictedUpHeap.clear();
+	}
+	
 	// Updates the object visibility list (depending on the camera position)
+	// The visibility can only change when the camera enters a new cell, so nothing is done while it stays in the same one
 	public void updateObjectVisibility(Vector3f cameraPos) {
-		Integer cameraCell = convertPosToCellId(cameraPos); // cell ID for the current camera position
+		long cameraCell = convertPosToCellId(cameraPos); // cell ID for the current camera position
+		if (visibilityComputed && cameraCell == this.cameraCell) return;
+		// If the row of the cell is still being loaded, the last visible set is kept until it is ready
+		if (streamer != null && streamer.isLoading(cameraCell)) return;
+		this.cameraCell = cameraCell;
+		this.visibilityComputed = true;
+		
 		// Obtain the set of visible cells from the current position (if possible)
-		Set<Integer> visibleCellsFromCam = new HashSet<Integer>();
-		if (visibleCells.containsKey(cameraCell)) visibleCellsFromCam = this.visibleCells.get(cameraCell);
-		this.objectVisibility.clear();
-		
-		Vector3f objPos;
-		for (int i = 0; i < this.objects.size(); i++) {
-			for (int j = 0; j < objects.get(i).getNumInstances(); j++) {
-				objPos = new Vector3f(objects.get(i).getPosition().x + objects.get(i).getOffSets().get(j).x,
-									  objects.get(i).getPosition().y,
-									  objects.get(i).getPosition().z + objects.get(i).getOffSets().get(j).y);
-				Integer objCell = convertPosToCellId(objPos);
-				// If the object is in a cell contained in the visible set, the object will be visible.
-				this.objectVisibility.add( visibleCellsFromCam.contains(objCell) );
+		int row = findVisibleRow(cameraCell);
+
+		// The list of instances visible until now becomes the previous one
+		int[] previousInstances = visibleInstances;
+		int numPreviousInstances = numVisibleInstances;
+		visibleInstances = previousVisibleInstances;
+		previousVisibleInstances = previousInstances;
+		numVisibleInstances = 0;
+		currentStamp++;
+		
+		// Only the instances inside the visible cells are traversed (the cost depends on what is visible, not on the map)
+		if (visibility == null) { // The visibility is still being generated, so nothing can be culled
+			for (int id = 0; id < instances.size(); id++) {
+				visibleInstances[numVisibleInstances++] = id;
+				visibilityStamp[id] = currentStamp;
+				setInstanceVisible(id, true);
+			}
+		} else if (row != -1) {
+			for (int slot = visibility.nextVisible(row, 0); slot != -1; slot = visibility.nextVisible(row, slot + 1)) {
+				for (int k = cellIndex.getStart(slot); k < cellIndex.getEnd(slot); k++) {
+					int id = cellIndex.getInstance(k);
+					visibleInstances[numVisibleInstances++] = id;
+					visibilityStamp[id] = currentStamp;
+					setInstanceVisible(id, true);
+				}
 			}
 		}
 		
-		Integer numInst0 = objects.get(0).getNumInstances();
-		Integer numInst1 = objects.get(1).getNumInstances();
-		Integer numInst2 = objects.get(2).getNumInstances();
-		
-		// Update the information in each of the LODEntities
-		objects.get(0).updateVisibleOffsets(objectVisibility.subList(0, numInst0));
-		objects.get(1).updateVisibleOffsets(objectVisibility.subList(numInst0, numInst0+numInst1));
-		objects.get(2).updateVisibleOffsets(objectVisibility.subList(numInst0+numInst1, numInst0+numInst1+numInst2));
+		// The instances that were visible before and are not visible any more
+		for (int i = 0; i < numPreviousInstances; i++) {
+			int id = previousInstances[i];
+			if (visibilityStamp[id] != currentStamp) setInstanceVisible(id, false);
+		}
+	}
+	
+	// Changes the visibility of an instance (if needed)
+	private void setInstanceVisible(int id, boolean visible) {
+		if (visible == instances.isVisible(id)) return;
+		// The cost of a predicted instance is counted as visible from now on (or the other way around)
+		double cost = getCostOf(id);
+		sceneCost += visible ? cost : -cost;
+		if (isPredicted(id)) predictedCost += visible ? -cost : cost;
+		LODEntity object = getObjectOf(id);
+		object.setInstanceVisible(id - object.getFirstInstance(), visible);
+		updateHeaps(id); // It enters or leaves the candidates
 	}
 	
 	public void timeCriticalRendering(Vector3f cameraPos) {
 		
 		updateContributionLists(cameraPos); // Update the list of contributions first
-
-		if (getSceneTriangles() < MAX_TRIANGLES) { // If the triangle threshold has not been reached (increase LoD)
+		
+		if (!multipleChangesPerFrame) {
+			
+			if (sceneCost < triangleBudget) { // If the budget has not been reached (increase LoD)
+				// If there is a maximum (only instances allowed by the hysteresis are candidates), increase its LoD
+				int overallID = getMaximumContributionUp();
+				if (overallID != -1) changeLoD(overallID, +1);
+				else refinePredictedInstances(Long.MAX_VALUE, 1); // Nothing left to refine, prepare the next cell
+			} else { // If the budget has been reached (decrease LoD)
+				// If there is a maximum (only instances allowed by the hysteresis are candidates), decrease its LoD
+				int overallID = getMaximumContributionDown();
+				if (overallID != -1) changeLoD(overallID, -1);
+			}
+			return;
+			
+		}
+		
+		// Greedy solver: keep changing the best candidate until the budget is reached (or the time slice runs out)
+		long deadline = System.nanoTime() + solverTimeSlice;
+		
+		if (sceneCost < triangleBudget) { // Increase LoD while the next step still fits in the budget
 			
-			Integer overallID = getMaximumContributionUp();
-			// If there is a maximum and it is possible (hysteresis), increase the LoD of this instance
-			if (overallID != null && hysteresisValue.get(overallID) == 0) {
-				convertObjectId(overallID);
-				Integer actualLoD = objects.get(objectId).getLoDofInstance(instanceId);
-				objects.get(objectId).changeLoDofInstance(instanceId, actualLoD+1);
-				hysteresisValue.set(overallID, MAX_HYSTERESIS);
+			int overallID = getMaximumContributionUp();
+			while (overallID != -1) {
+				if (sceneCost + getCostOfChange(overallID, +1) > triangleBudget) break;
+				changeLoD(overallID, +1);
+				if (System.nanoTime() >= deadline) break;
+				overallID = getMaximumContributionUp();
 			}
 			
-		} else { // If the triangle threshold has been reached (decrease LoD)
+			refinePredictedInstances(deadline, Integer.MAX_VALUE); // Spend what is left of the budget on the next cell
+			
+		} else { // Decrease LoD until the scene is back under the budget
 			
-			Integer overallID = getMaximumContributionDown();
-			// If there is a maximum and it is possible (hysteresis), decrease the LoD of this instance
-			if (overallID != null && hysteresisValue.get(overallID) == 0) {
-				convertObjectId(overallID);
-				Integer actualLoD = objects.get(objectId).getLoDofInstance(instanceId);
-				objects.get(objectId).changeLoDofInstance(instanceId, actualLoD-1);
-				hysteresisValue.set(overallID, MAX_HYSTERESIS);
+			int overallID = getMaximumContributionDown();
+			while (overallID != -1 && sceneCost >= triangleBudget) {
+				changeLoD(overallID, -1);
+				if (System.nanoTime() >= deadline) break;
+				overallID = getMaximumContributionDown();
 			}
 			
 		}
 		
 	}
 	
-	// Returns the higher amount of contribution from the list
-	public Integer getMaximumContributionUp() {
-		Float max = 0.0f;
-		Integer maxPos = null;
-		for (int i = 0; i < contributionUp.size(); i++) {
-			if (contributionUp.get(i) != null && contributionUp.get(i) > max && objectVisibility.get(i)) {
-				max = contributionUp.get(i);
-				maxPos = i;
-			}
+	// Changes the LoD of an instance one level up (+1) or down (-1), and starts its hysteresis
+	private void changeLoD(int overallID, int step) {
+		LODEntity object = getObjectOf(overallID);
+		int instanceId = overallID - object.getFirstInstance();
+		int actualLoD = object.getLoDofInstance(instanceId);
+		// The cost of the change is counted before it (at the highest LoD there is no next level)
+		double change = getCostOfChange(overallID, step);
+		if (instances.isVisible(overallID)) sceneCost += change;
+		else if (isPredicted(overallID)) predictedCost += change;
+		object.changeLoDofInstance(instanceId, actualLoD+step);
+		
+		lodChanges++;
+		
+		// The instance is not a candidate again until its hysteresis is over
+		instances.setLastChange(overallID, getHysteresisClock());
+		contributionUpHeap.remove(overallID);
+		contributionDownHeap.remove(overallID);
+		predictedUpHeap.remove(overallID);
+		// Without hysteresis it is a candidate again right away (and it can change again in this frame), so it must not
+		// enter the queue: an instance is only in the queue while it waits, so the queue never holds more than one entry per instance
+		if (!isHysteresisOver(overallID)) {
+			hysteresisQueue[(hysteresisHead + hysteresisCount) % hysteresisQueue.length] = overallID;
+			hysteresisCount++;
 		}
-		return maxPos;
+
+		updateContribution(object, overallID);
 	}
 	
-	// Returns the higher ("least negative") amount of contribution from the list
-	public Integer getMaximumContributionDown() {
-		Float max = -99999.0f;
-		Integer maxPos = null;
-		for (int i = 0; i < contributionDown.size(); i++) {
-			if (contributionDown.get(i) != null && contributionDown.get(i) > max && objectVisibility.get(i)) {
-				max = contributionDown.get(i);
-				maxPos = i;
-			}
+	// Increases the LoD of the instances that will be visible from the predicted cell (the best ones first)
+	// The cost they will add once visible has to fit in the budget too
+	private void refinePredictedInstances(long deadline, int maxChanges) {
+		int changes = 0;
+		while (!predictedUpHeap.isEmpty() && changes < maxChanges && System.nanoTime() < deadline) {
+			int id = predictedUpHeap.peek();
+			if (sceneCost + predictedCost + getCostOfChange(id, +1) > triangleBudget) break;
+			changeLoD(id, +1);
+			changes++;
 		}
-		return maxPos;
 	}
 	
-	// Pos(x,y,z) = xxxzzz. For example, Pos(12.7, 5.4, 1.6) = 012001
-	public Integer convertPosToCellId(Vector3f pos) {
-		int x = (int) pos.x*1000;
-		int z = (int) pos.z;
-		return x+z;
+	// Returns the cost (given by the policy) of an instance at its current LoD
+	private double getCostOf(int overallID) {
+		return policy.cost(getObjectOf(overallID), instances.getLoD(overallID));
 	}
 	
-	// Converts the global id of an instance into the object id and instance id
-	private void convertObjectId(Integer OverallId) {
-		objectId = 0;
-		instanceId = 0;
-		for (int i = 0; i < objects.size(); i++) {
-			if (OverallId >= objects.get(i).getNumInstances()) {
-				OverallId -= objects.get(i).getNumInstances();
-				objectId++;
-			} else {
-				instanceId = OverallId;
-				return;
-			}
+	// Returns the difference in cost if the LoD of this instance is changed one level up (+1) or down (-1)
+	private double getCostOfChange(int overallID, int step) {
+		LODEntity object = getObjectOf(overallID);
+		int actualLoD = instances.getLoD(overallID);
+		return policy.cost(object, actualLoD+step) - policy.cost(object, actualLoD);
+	}
+	
+	// Returns the current value of the clock used by the hysteresis (frames or milliseconds)
+	private int getHysteresisClock() {
+		if (hysteresisMillis > 0) return (int) ((System.nanoTime() - creationTime) / 1000000);
+		return frameCount;
+	}
+	
+	// Returns whether the hysteresis allows this instance to change its level of detail
+	private boolean isHysteresisOver(int id) {
+		int lastChange = instances.getLastChange(id);
+		if (lastChange == InstanceStore.NEVER_CHANGED) return true;
+		int elapsed = getHysteresisClock() - lastChange;
+		return elapsed >= (hysteresisMillis > 0 ? hysteresisMillis : hysteresisFrames);
+	}
+	
+	// Forgets the last LoD change of every instance (used when the clock of the hysteresis changes)
+	private void resetHysteresisStamps() {
+		for (int id = 0; id < instances.size(); id++) {
+			instances.setLastChange(id, InstanceStore.NEVER_CHANGED);
 		}
+		releaseHysteresis(); // All the instances waiting can be candidates again
 	}
 	
-	// Computes the total number of VISIBLE triangles on the scene (not counting the walls or the floor)
-	public Integer getSceneTriangles() {
-		Integer sceneTriangles = 0, globalIndex = 0;
-		for (int i = 0; i < objects.size(); i++) {
-			for (int j = 0; j < objects.get(i).getNumInstances(); j++) {
-				if (this.objectVisibility.get(globalIndex)) {
-					Integer objectLoD = objects.get(i).getLoDofInstance(j);
-					sceneTriangles += objects.get(i).getModel(objectLoD).getRawModel().getNumTriangles();
-				}
-				globalIndex++;
-			}
+	// Makes the instances whose hysteresis is over candidates again
+	// The stamps in the queue only grow, so the instances are released in the same order they entered the queue
+	private void releaseHysteresis() {
+		while (hysteresisCount > 0 && isHysteresisOver(hysteresisQueue[hysteresisHead])) {
+			updateHeaps(hysteresisQueue[hysteresisHead]);
+			hysteresisHead = (hysteresisHead + 1) % hysteresisQueue.length;
+			hysteresisCount--;
+		}
+	}
+	
+	// Returns the higher amount of contribution from the list (O(1), the heap is already up to date), -1 if there is none
+	public int getMaximumContributionUp() {
+		int maxPos = contributionUpHeap.peek();
+		if (maxPos == -1 || !(contributionUpHeap.getKey(maxPos) > 0.0f)) return -1;
+		return maxPos;
+	}
+	
+	// Returns the higher ("least negative") amount of contribution from the list, -1 if there is none
+	// Any priority is valid (the scale depends on the policy, and instances that can't be reduced are not in the heap)
+	public int getMaximumContributionDown() {
+		return contributionDownHeap.peek();
+	}
+	
+	// Returns the ID of the cell containing this position (see CellId). For example, Pos(12.7, 5.4, 1.6) = Cell(12, 1)
+	public long convertPosToCellId(Vector3f pos) {
+		return convertPosToCellId(pos.x, pos.z);
+	}
+	
+	// Same as above, only with the coordinates of the ground plane
+	public long convertPosToCellId(float posX, float posZ) {
+		return CellId.encode((int) posX, (int) posZ);
+	}
+	
+	// Returns the LoD entity an instance belongs to (its index inside the entity is the global id - getFirstInstance())
+	private LODEntity getObjectOf(int overallID) {
+		return objects.get(instanceObjects[overallID]);
+	}
+	
+	// Returns the total number of VISIBLE triangles on the scene (not counting the walls or the floor)
+	// The count is kept up to date by the LODEntities every time an instance changes its LoD or its visibility, so this is O(1)
+	public int getSceneTriangles() {
+		return instances.getVisibleTriangles();
+	}
+	
+	// Returns the cost (given by the policy) of the visible instances, the one that is compared with the budget
+	public double getSceneCost() {
+		return sceneCost;
+	}
+	
+	// Updates the map (called every frame) retuning the triangle budget with the time of the last frame (in seconds)
+	public void update(Vector3f cameraPos, float frameTime) {
+		if (budgetController != null) {
+			budgetController.update(frameTime);
+			triangleBudget = budgetController.getBudget();
 		}
-		return sceneTriangles;
+		if (frameTime > 0) lastFrameTime = frameTime;
+		update(cameraPos);
 	}
 	
 	// Updates the map (called every frame)
 	public void update(Vector3f cameraPos) {
-		Integer actualVal;
-		for (int i = 0; i < hysteresisValue.size(); i++) {
-			actualVal = hysteresisValue.get(i);
-			hysteresisValue.set(i, actualVal == 0 ? 0 : actualVal-1);
-		}
+		frameCount++;
+		lodChanges = 0;
+		releaseHysteresis();
+		if (streamer != null) updateStreaming(cameraPos);
+		if (visibilityCache != null) updateVisibilityCache();
+		updatePrediction(cameraPos);
 		timeCriticalRendering(cameraPos);
 		updateObjectVisibility(cameraPos);
 	}
@@ -364,6 +817,150 @@ public class Terrain {
 		return walls;
 	}
 	
+	public InstanceStore getInstances() {
+		return instances;
+	}
+	
+	// Returns the number of instances visible from the current cell
+	public int getNumVisibleInstances() {
+		return numVisibleInstances;
+	}
+	
+	// Predicts the camera movement this time ahead (in seconds) and refines the instances visible from the predicted
+	// cell before the camera gets there (0 disables the prediction)
+	public void setPredictionTime(float seconds) {
+		this.predictionTime = seconds;
+		if (seconds <= 0) clearPrediction();
+	}
+	
+	public float getPredictionTime() {
+		return predictionTime;
+	}
+	
+	// Returns the number of instances visible from the predicted cell (0 if there is no prediction)
+	public int getNumPredictedInstances() {
+		return numPredictedInstances;
+	}
+	
+	// Changes the policy that decides the benefit, cost and order of the LoD changes
+	public void setLodPolicy(LodPolicy policy) {
+		this.policy = policy;
+		this.contributionsComputed = false; // All the contributions have to be recomputed with the new policy
+		recomputeCosts();
+	}
+	
+	// Sums again the cost of the visible and the predicted instances (the policy measures it in other units)
+	private void recomputeCosts() {
+		sceneCost = 0;
+		predictedCost = 0;
+		for (int id = 0; id < instances.size(); id++) {
+			if (instances.isVisible(id)) sceneCost += getCostOf(id);
+			else if (isPredicted(id)) predictedCost += getCostOf(id);
+		}
+	}
+	
+	public LodPolicy getLodPolicy() {
+		return policy;
+	}
+	
+	// Sets a fixed maximum cost per frame, in the units of the cost of the policy (ignored if there is a budget controller)
+	public void setTriangleBudget(int triangles) {
+		this.triangleBudget = triangles;
+	}
+	
+	// Returns the budget used in the last frame
+	public int getTriangleBudget() {
+		return triangleBudget;
+	}
+	
+	// Lets a controller choose the triangle budget from the measured frame time (null to use a fixed budget)
+	public void setBudgetController(BudgetController budgetController) {
+		this.budgetController = budgetController;
+		if (budgetController != null) this.triangleBudget = budgetController.getBudget();
+	}
+	
+	public BudgetController getBudgetController() {
+		return budgetController;
+	}
+	
+	// Number of frames an instance has to wait between two changes of its level of detail
+	public void setHysteresisFrames(int frames) {
+		if (hysteresisMillis > 0) resetHysteresisStamps(); // Stamps of the other clock can't be compared
+		this.hysteresisFrames = frames;
+		this.hysteresisMillis = 0;
+	}
+	
+	// Time (in milliseconds) an instance has to wait between two changes of its level of detail
+	// The behaviour does not depend on the frame rate, 0 goes back to the hysteresis in frames
+	public void setHysteresisMillis(int milliseconds) {
+		if ((milliseconds > 0) != (hysteresisMillis > 0)) resetHysteresisStamps(); // Stamps of the other clock can't be compared
+		this.hysteresisMillis = Math.max(milliseconds, 0);
+	}
+	
+	public int getHysteresisFrames() {
+		return hysteresisFrames;
+	}
+	
+	public int getHysteresisMillis() {
+		return hysteresisMillis;
+	}
+	
+	// Returns the number of frames updated since the terrain was created
+	public int getFrameCount() {
+		return frameCount;
+	}
+	
+	// Returns the number of instances whose LoD changed in the last frame
+	public int getLastFrameLodChanges() {
+		return lodChanges;
+	}
+	
+	public int getMapSizeX() {
+		return mapSizeX;
+	}
+	
+	public int getMapSizeZ() {
+		return mapSizeZ;
+	}
+	
+	// Allows timeCriticalRendering to change as many instances as needed each frame to land close to the budget
+	public void setMultipleChangesPerFrame(boolean multipleChangesPerFrame) {
+		this.multipleChangesPerFrame = multipleChangesPerFrame;
+	}
+	
+	public boolean isMultipleChangesPerFrame() {
+		return multipleChangesPerFrame;
+	}
+	
+	// Sets the maximum time (in nanoseconds) the solver can spend changing levels of detail in a single frame
+	public void setSolverTimeSlice(long nanoseconds) {
+		this.solverTimeSlice = nanoseconds;
+	}
+	
+	public long getSolverTimeSlice() {
+		return solverTimeSlice;
+	}
+	
+	// Stops the background work of the terrain (the loader of the regions, if it is streamed)
+	public void cleanUp() {
+		if (streamer != null) streamer.shutdown();
+	}
+	
+	// Returns the streamer of the regions (null if the whole map is in memory)
+	public RegionStreamer getStreamer() {
+		return streamer;
+	}
+	
+	// Same as below, reusing the models already loaded (by the name of the model)
+	private static TexturedModel loadModel(String modelName, String textureName, Loader loader, Map<String, TexturedModel> loadedModels) {
+		TexturedModel model = loadedModels.get(modelName);
+		if (model == null) {
+			model = loadModel(modelName, textureName, loader);
+			loadedModels.put(modelName, model);
+		}
+		return model;
+	}
+	
 	private static TexturedModel loadModel(String modelName, String textureName, Loader loader){
 		RawModel model = ObjFileLoader.loadOBJ(modelName, loader);
 		ModelTexture texture = new ModelTexture(loader.loadTexture(textureName));
@@ -1,41 +1,149 @@
 package terrain;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Random;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
+// Generates the visibility file of a map casting random lines through it: the cells crossed by a line between two
+// walls can see each other.
+//
+// The lines are cast in batches, until a batch finds fewer new pairs of visible cells than a fraction of the pairs
+// found before it (so the number of lines depends on the map). After the first batch, half of the lines of each batch
+// go through the cells whose visible set grew in the previous one, as they are the ones still missing cells.
+//
+// The lines of a batch are cast in parallel: they are split in tasks of LINES_PER_TASK lines, each one with its own
+// random generator and its own partial set of visible cells (see CellVisibility), merged at the end of the batch.
+// The generators of the tasks are split from the seed in order, so the result only depends on the seed (not on the
+// number of threads).
+//
+// The visibility can also be computed exactly (see PermissiveFieldOfView): every free cell gets all the cells that a
+// line could see from it, in a time that only depends on the map. The source cells are shared between the threads.
+//
+// After editing a map, its visibility file can be updated instead of generated again: only the cells that can see a
+// cell whose wall was added or removed get their exact visibility computed again, the rest is kept.
+//
+// Usage: Visibility mapName visibilityFileName [options]
+//   -exact                     compute the exact visibility instead of casting lines
+//   -update oldMapName         update the visibility file of oldMapName for the edited map mapName
+//   -lines n                   cast exactly n lines (without the convergence test)
+//   -maxLines n                maximum number of lines
+//   -convergence f             stop when a batch adds less than this fraction of the pairs found before it
+//   -seed n                    seed of the random lines
+//   -threads n                 threads casting the lines
 public class Visibility {
 	
 	private static final String RES_LOC = "res/";
-	
+	private static final String MORTON_TAG = "(cell ids: morton)"; // End of the header of the files that use CellId
+	// Always written as ISO-8859-1 (the encoding of the files of res), so every machine writes the same bytes
+	private static final String HEADER = "# Visibility file generated by Rafael vila " + MORTON_TAG + "\n";
+
+	private static final int DEFAULT_MAX_LINES = 5000000;
+	private static final double DEFAULT_CONVERGENCE = 0.001;
+	private static final long DEFAULT_SEED = 1;
+	private static final int BATCH_LINES = 10000; // Lines cast between two convergence tests
+	private static final int LINES_PER_TASK = 1000; // Lines cast by each task
+	private static final int CELLS_PER_TASK = 64; // Source cells of each task of the exact visibility
+
 	// The size of the map
 	private Integer mapSizex;
 	private Integer mapSizey;
 	
-	private ArrayList<ArrayList<Integer>> terrainValues; // The map values: 0 for empty, 1 for walls
-	private Map<Integer, Set<Integer>> visibleCells; // Map keys and values are cells coded as Integers to avoid duplicates
-	
-	Vector2f P1, P2; // Endpoints of the line (segment)
+	private int[][] terrainValues; // The map values: 0 for empty, 1 for walls
+	private long[] freeCells; // The ids of the free cells (sorted), their positions are the rows and columns of the sets
+	private int[][] freeCellIndex; // The position of each cell in freeCells (-1 for walls)
+	private CellVisibility visibleCells; // The free cells visible from each free cell
+	private ArrayList<long[]> convergenceCurve; // Lines cast, pairs of visible cells and new pairs after each batch
+
+	// Only reads the map (the visibility file is generated with one of the generate methods)
+	public Visibility(String mapName) {
+		readMapFile(mapName);
+		indexFreeCells();
+	}
 	
+	// Casts lines until the visible sets converge
 	public Visibility(String mapName, String visibilityFileName) {
-		this.terrainValues = new ArrayList<ArrayList<Integer>>();
-		this.visibleCells = new HashMap<Integer, Set<Integer>>();
-		
+		this(mapName, visibilityFileName, DEFAULT_MAX_LINES, DEFAULT_CONVERGENCE, DEFAULT_SEED, Runtime.getRuntime().availableProcessors());
+	}
+	
+	// Casts exactly numLines lines
+	public Visibility(String mapName, String visibilityFileName, int numLines, long seed, int threads) {
+		this(mapName, visibilityFileName, numLines, 0, seed, threads);
+	}
+	
+	// Casts lines until a batch adds less than convergence times the pairs found before it (or maxLines are cast)
+	public Visibility(String mapName, String visibilityFileName, int maxLines, double convergence, long seed, int threads) {
 		readMapFile(mapName);
-		generateVisibilityFile(50000, visibilityFileName); // 50000 lines looked like enough for the maps used
+		indexFreeCells();
+		generateVisibilityFile(maxLines, convergence, seed, threads, visibilityFileName);
+	}
+	
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: Visibility mapName visibilityFileName [options]");
+			System.exit(-1);
+		}
+		int maxLines = DEFAULT_MAX_LINES, threads = Runtime.getRuntime().availableProcessors();
+		double convergence = DEFAULT_CONVERGENCE;
+		long seed = DEFAULT_SEED;
+		boolean exact = false;
+		String oldMapName = null;
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("-exact")) exact = true;
+			else if (args[i].equals("-update")) oldMapName = args[++i];
+			else if (args[i].equals("-lines")) {
+				maxLines = Integer.parseInt(args[++i]);
+				convergence = 0;
+			}
+			else if (args[i].equals("-maxLines")) maxLines = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-convergence")) convergence = Double.parseDouble(args[++i]);
+			else if (args[i].equals("-seed")) seed = Long.parseLong(args[++i]);
+			else if (args[i].equals("-threads")) threads = Integer.parseInt(args[++i]);
+			else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(-1);
+			}
+		}
+		
+		long start = System.nanoTime();
+		if (oldMapName != null) {
+			Visibility visibility = new Visibility(args[0]);
+			int rows = visibility.updateVisibilityFile(oldMapName, threads, args[1]);
+			System.out.println(rows + " of " + visibility.freeCells.length + " rows computed again");
+			System.out.println("Visibility file updated in " + (System.nanoTime() - start) / 1000000 + " ms");
+			return;
+		}
+		if (exact) {
+			new Visibility(args[0]).generateExactVisibilityFile(threads, args[1]);
+			System.out.println("Visibility file generated in " + (System.nanoTime() - start) / 1000000 + " ms");
+			return;
+		}
+		Visibility visibility = new Visibility(args[0], args[1], maxLines, convergence, seed, threads);
+		System.out.println("lines,pairs,newPairs");
+		for (long[] point : visibility.getConvergenceCurve()) {
+			System.out.println(point[0] + "," + point[1] + "," + point[2]);
+		}
+		System.out.println("Visibility file generated in " + (System.nanoTime() - start) / 1000000 + " ms");
 	}
 	
 	// Reads the file corresponding to the map (now only focusing on the walls, not on the objects)
@@ -59,25 +167,23 @@ public class Visibility {
 			mapSizex = (Integer) Integer.valueOf(line);
 			line = reader.readLine();
 			mapSizey = (Integer) Integer.valueOf(line);
+			terrainValues = new int[mapSizex][mapSizey];
 			
 			// Current cell
-			Integer xPos = 0, yPos = 0;
-			terrainValues.add(new ArrayList<Integer>());
+			int xPos = 0, yPos = 0;
 			
 			line = reader.readLine();
-			while (line != null) {
+			while (line != null && yPos < mapSizex) {
 				cellValue = (Integer) Integer.valueOf(line); // The value of this cell
-					
-				if (xPos == mapSizey) {
-					terrainValues.add(new ArrayList<Integer>());
-					xPos = 0;
-					yPos += 1;
-				}
 				
 				// Cell value 1 if there is a wall
 				// Cell value 0 otherwise
-				terrainValues.get(yPos).add(cellValue == 0 ? 1 : 0);
+				terrainValues[yPos][xPos] = (cellValue == 0 ? 1 : 0);
 				xPos += 1;
+				if (xPos == mapSizey) {
+					xPos = 0;
+					yPos += 1;
+				}
 				
 				line = reader.readLine();
 			}
@@ -89,28 +195,159 @@ public class Visibility {
 		
 	}
 	
-	// Generates the file with all the visibility information of this map
+	// Generates the file with all the visibility information of this map (casting exactly randomLineNumber lines)
 	public void generateVisibilityFile(Integer randomLineNumber, String fileName) {
+		generateVisibilityFile(randomLineNumber, 0, DEFAULT_SEED, Runtime.getRuntime().availableProcessors(), fileName);
+	}
+	
+	// Same as above, casting batches of lines until a batch adds less than convergence times the pairs found before
+	// it (or maxLines are cast; with convergence 0, all of them are cast in a single batch)
+	public void generateVisibilityFile(int maxLines, double convergence, long seed, int threads, String fileName) {
 		// First generate the data (draw the lines, cell intersections, subsets, ...)
-		for (int i = 0; i < randomLineNumber; i++) {
-			generateLinePoints();
-			ArrayList<Vector3f> lineInfo = intersectLineWithCells();
-			addVisibleSets(lineInfo);
+		this.visibleCells = new CellVisibility(freeCells, freeCells.length);
+		this.convergenceCurve = new ArrayList<long[]>();
+		SplittableRandom random = new SplittableRandom(seed);
+		int[] growingCells = new int[0]; // The free cells whose visible set grew in the last batch
+		int[] grown = new int[freeCells.length];
+		long lines = 0, pairs = 0;
+		
+		ForkJoinPool pool = new ForkJoinPool(Math.max(threads, 1));
+		try {
+			while (lines < maxLines) {
+				int batchLines = (int) (convergence > 0 ? Math.min(BATCH_LINES, maxLines - lines) : maxLines - lines);
+				int numTasks = (batchLines + LINES_PER_TASK - 1) / LINES_PER_TASK;
+				SplittableRandom[] randoms = new SplittableRandom[numTasks];
+				for (int i = 0; i < numTasks; i++) {
+					randoms[i] = random.split();
+				}
+				CellVisibility batch = pool.invoke(new CastTask(randoms, 0, numTasks, batchLines, growingCells));
+				
+				// Add the batch, remembering the cells that got new visible cells
+				long newPairs = 0;
+				int numGrown = 0;
+				for (int row = 0; row < freeCells.length; row++) {
+					int added = visibleCells.or(row, batch, row);
+					if (added > 0) grown[numGrown++] = row;
+					newPairs += added;
+				}
+				growingCells = Arrays.copyOf(grown, numGrown);
+				lines += batchLines;
+				convergenceCurve.add(new long[] {lines, pairs + newPairs, newPairs});
+				
+				boolean converged = newPairs == 0 || newPairs < convergence * pairs;
+				pairs += newPairs;
+				if (convergence > 0 && converged) break;
+			}
+		} finally {
+			pool.shutdown();
+		}
+		
+		writeVisibilityFile(fileName);
+	}
+	
+	// Generates the file with the exact visibility of every free cell (see PermissiveFieldOfView)
+	public void generateExactVisibilityFile(int threads, String fileName) {
+		this.visibleCells = new CellVisibility(freeCells, freeCells.length);
+		this.convergenceCurve = new ArrayList<long[]>();
+		int[] cells = new int[freeCells.length];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = i;
+		}
+		computeFieldsOfView(cells, threads);
+		
+		writeVisibilityFile(fileName);
+	}
+	
+	// Updates the visibility file of the map oldMapName for this map (an edited version of it, with the same size)
+	// A cell only sees something different if it could see one of the changed cells (walls added or removed) before
+	// or after the change, so only the rows of those cells are computed again (with the exact visibility) and the rest
+	// are copied from the file. If the sizes of the maps or the file are different, the whole file is generated again.
+	// Returns the number of rows computed
+	public int updateVisibilityFile(String oldMapName, int threads, String fileName) {
+		Visibility oldMap = new Visibility(oldMapName);
+		if (!oldMap.mapSizex.equals(mapSizex) || !oldMap.mapSizey.equals(mapSizey) || !new File(RES_LOC + fileName + ".txt").exists()) {
+			generateExactVisibilityFile(threads, fileName);
+			return freeCells.length;
 		}
 		
-		FileWriter fw = null;
+		// The free cells that see a changed cell, in the old map or in the new one (as a row of a set)
+		CellVisibility affected = new CellVisibility(new long[] {0}, freeCells.length);
+		PermissiveFieldOfView oldFieldOfView = new PermissiveFieldOfView(oldMap.terrainValues, mapSizex, mapSizey);
+		PermissiveFieldOfView fieldOfView = new PermissiveFieldOfView(terrainValues, mapSizex, mapSizey);
+		for (int x = 0; x < mapSizex; x++) {
+			for (int y = 0; y < mapSizey; y++) {
+				if (terrainValues[x][y] == oldMap.terrainValues[x][y]) continue;
+				oldFieldOfView.compute(x, y, freeCellIndex, affected, 0);
+				fieldOfView.compute(x, y, freeCellIndex, affected, 0);
+			}
+		}
+		int[] cells = new int[affected.countVisible(0)];
+		int numCells = 0;
+		for (int cell = affected.nextVisible(0, 0); cell != -1; cell = affected.nextVisible(0, cell + 1)) {
+			cells[numCells++] = cell;
+		}
+		
+		// Compute the affected rows, and keep the rest (copied as they are, or read and written again for old files)
+		this.visibleCells = new CellVisibility(freeCells, freeCells.length);
+		this.convergenceCurve = new ArrayList<long[]>();
+		computeFieldsOfView(cells, threads);
+		if (!patchVisibilityFile(fileName, affected, cells, numCells)) {
+			readVisibilityFile(fileName, affected);
+			writeVisibilityFile(fileName);
+		}
+		return numCells;
+	}
+	
+	// Computes the exact visibility of these free cells in parallel
+	private void computeFieldsOfView(int[] cells, int threads) {
+		ForkJoinPool pool = new ForkJoinPool(Math.max(threads, 1));
+		try {
+			pool.invoke(new FieldOfViewTask(cells, 0, cells.length));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	// Reads the rows of a visibility file into the visible cells (only the free cells of this map are kept, and the
+	// rows of the cells set in the first row of skipped are not read)
+	private void readVisibilityFile(String fileName, CellVisibility skipped) {
+		VisibilityTextFile textFile = VisibilityTextFile.open(RES_LOC + fileName + ".txt");
+		long[] cells = new long[64];
+		int[] columns = new int[64];
+		for (int i = 0; i < textFile.getNumRows(); i++) {
+			int row = Arrays.binarySearch(freeCells, textFile.getRowCell(i));
+			if (row < 0 || skipped.isVisible(0, row)) continue;
+			int maxLength = textFile.getMaxRowLength(i);
+			if (maxLength > cells.length) {
+				cells = new long[Math.max(maxLength, cells.length * 2)];
+				columns = new int[cells.length];
+			}
+			int numCells = textFile.readRow(i, cells);
+			int numColumns = 0;
+			for (int j = 0; j < numCells; j++) {
+				int column = Arrays.binarySearch(freeCells, cells[j]);
+				if (column >= 0) columns[numColumns++] = column;
+			}
+			visibleCells.setRow(row, columns, numColumns);
+		}
+		textFile.close();
+	}
+	
+	// Returns the lines cast, the pairs of visible cells found and the new pairs of the last batch, after each batch
+	public ArrayList<long[]> getConvergenceCurve() {
+		return convergenceCurve;
+	}
+	
+	// Writes the visible cells (sorted, so the same sets always give the same file)
+	private void writeVisibilityFile(String fileName) {
+		Writer fw = null;
 		try {
-			fw = new FileWriter("res/" + fileName + ".txt");
+			fw = new OutputStreamWriter(new FileOutputStream("res/" + fileName + ".txt"), StandardCharsets.ISO_8859_1);
 			
-			fw.write("# Visibility file generated by Rafael vila\n");
+			fw.write(HEADER);
 			
-			for (Map.Entry<Integer,Set<Integer>> entry : this.visibleCells.entrySet()) { // For each entry on the map
-				fw.write(entry.getKey().toString() + "\n"); // Write the current cell ID
-	            Iterator<Integer> it = entry.getValue().iterator();
-	            while(it.hasNext()){ // For each value on the set
-	            	fw.write(it.next().toString() + ","); // Write the visible cells IDs
-	            }
-	            fw.write("\n");
+			for (int row = 0; row < visibleCells.getNumRows(); row++) { // For each cell crossed by a line
+				if (visibleCells.hasRow(row)) fw.write(formatRow(row));
 			}
 			
 			fw.close();
@@ -120,109 +357,391 @@ public class Visibility {
 		}
 	}
 	
-	// Generates two random points on 2 different sides of the map
-	public void generateLinePoints() {
-		Random random = new Random();
-		Integer side1, side2;
-		side1 = random.nextInt(4);
-		side2 = (side1 + random.nextInt(2)+1)%4;
+	// The lines of a row in the visibility file: the cell ID and the IDs of the visible cells
+	private String formatRow(int row) {
+		StringBuilder line = new StringBuilder();
+		line.append(visibleCells.getRowCell(row)).append('\n');
+		for (int column = visibleCells.nextVisible(row, 0); column != -1; column = visibleCells.nextVisible(row, column + 1)) {
+			line.append(freeCells[column]).append(',');
+		}
+		return line.append('\n').toString();
+	}
+	
+	// Writes the visibility file copying the rows of the old one that were not computed again, without parsing them
+	// (the rows of the cells set in the first row of computed are taken from the visible cells)
+	// Returns false, without changing the file, if it is an old file (x*1000+z) or its rows are not sorted by cell
+	private boolean patchVisibilityFile(String fileName, CellVisibility computed, int[] cells, int numCells) {
+		File file = new File(RES_LOC + fileName + ".txt"), patched = new File(RES_LOC + fileName + ".tmp");
+		boolean sorted = true;
+		try {
+			LineReader in = new LineReader(new FileInputStream(file));
+			if (!in.next() || !isMortonHeader(in.toString())) {
+				in.close();
+				return false;
+			}
+			
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(patched), 1 << 16);
+			out.write(HEADER.getBytes(StandardCharsets.ISO_8859_1));
+			int next = 0; // The next computed row to write
+			long previousCell = -1;
+			while (in.next()) {
+				long cell = in.parseLong();
+				if (cell <= previousCell) {
+					sorted = false;
+					break;
+				}
+				previousCell = cell;
+				
+				// The computed rows go in their place, and the rest are copied (except the cells that are walls now)
+				while (next < numCells && freeCells[cells[next]] < cell) {
+					out.write(formatRow(cells[next++]).getBytes());
+				}
+				int row = Arrays.binarySearch(freeCells, cell);
+				in.next(); // The visible cells
+				if (row < 0 || computed.isVisible(0, row)) continue;
+				out.write((cell + "\n").getBytes());
+				in.write(out);
+			}
+			while (next < numCells) {
+				out.write(formatRow(cells[next++]).getBytes());
+			}
+			in.close();
+			out.close();
+			
+			if (sorted) Files.move(patched.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			else patched.delete();
+		} catch (IOException e) {
+			System.err.println("Error writting the file");
+			System.exit(-1);
+		}
+		return sorted;
+	}
+	
+	// Reads the lines of a file as bytes, to copy them without decoding them
+	private static class LineReader {
 		
-		if (side1 == 0) P1 = new Vector2f(random.nextFloat()*mapSizex, 0.0f);
-		if (side1 == 1) P1 = new Vector2f(0.0f, random.nextFloat()*mapSizey);
-		if (side1 == 2) P1 = new Vector2f(random.nextFloat()*mapSizex, mapSizey);
-		if (side1 == 3) P1 = new Vector2f(mapSizex, random.nextFloat()*mapSizey);
+		private InputStream in;
+		private byte[] buffer = new byte[1 << 16];
+		private int position = 0, limit = 0; // The bytes of the buffer not read yet
+		private byte[] line = new byte[256]; // The current line (with its end of line)
+		private int length;
+		
+		LineReader(InputStream in) {
+			this.in = in;
+		}
+		
+		// Reads the next line; returns false at the end of the file
+		boolean next() throws IOException {
+			length = 0;
+			while (true) {
+				if (position == limit) {
+					limit = Math.max(in.read(buffer, 0, buffer.length), 0);
+					position = 0;
+					if (limit == 0) return length > 0;
+				}
+				int start = position;
+				while (position < limit && buffer[position] != '\n') {
+					position++;
+				}
+				boolean endOfLine = position < limit;
+				if (endOfLine) position++;
+				int count = position - start;
+				if (length + count > line.length) line = Arrays.copyOf(line, Math.max(length + count, line.length * 2));
+				System.arraycopy(buffer, start, line, length, count);
+				length += count;
+				if (endOfLine) return true;
+			}
+		}
+		
+		// The number written on the current line
+		long parseLong() {
+			long value = 0;
+			for (int i = 0; i < length; i++) {
+				if (line[i] >= '0' && line[i] <= '9') value = value * 10 + (line[i] - '0');
+			}
+			return value;
+		}
+		
+		void write(OutputStream out) throws IOException {
+			out.write(line, 0, length);
+		}
+		
+		void close() throws IOException {
+			in.close();
+		}
+		
+		@Override
+		public String toString() {
+			return new String(line, 0, length);
+		}
+		
+	}
+	
+	// Numbers the free cells in the order of their ids (so the visible cells of each row are written sorted)
+	private void indexFreeCells() {
+		long[] cells = new long[mapSizex * mapSizey];
+		int numFree = 0;
+		for (int x = 0; x < mapSizex; x++) {
+			for (int y = 0; y < mapSizey; y++) {
+				if (terrainValues[x][y] == 0) cells[numFree++] = CellId.encode(y, x);
+			}
+		}
+		freeCells = Arrays.copyOf(cells, numFree);
+		Arrays.sort(freeCells);
+		
+		freeCellIndex = new int[mapSizex][mapSizey];
+		for (int[] row : freeCellIndex) {
+			Arrays.fill(row, -1);
+		}
+		for (int i = 0; i < numFree; i++) {
+			freeCellIndex[CellId.getZ(freeCells[i])][CellId.getX(freeCells[i])] = i;
+		}
+	}
+
+	// Computes the exact visibility of the free cells cells[first] ... cells[end-1] (each task only writes the rows of
+	// its cells)
+	private class FieldOfViewTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private int[] cells;
+		private int first, end;
+		
+		FieldOfViewTask(int[] cells, int first, int end) {
+			this.cells = cells;
+			this.first = first;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if (end - first <= CELLS_PER_TASK) {
+				PermissiveFieldOfView fieldOfView = new PermissiveFieldOfView(terrainValues, mapSizex, mapSizey);
+				for (int i = first; i < end; i++) {
+					long cell = freeCells[cells[i]];
+					fieldOfView.compute(CellId.getZ(cell), CellId.getX(cell), freeCellIndex, visibleCells, cells[i]);
+				}
+				return;
+			}
+			int middle = (first + end) >>> 1;
+			invokeAll(new FieldOfViewTask(cells, first, middle), new FieldOfViewTask(cells, middle, end));
+		}
 		
-		if (side2 == 0) P2 = new Vector2f(random.nextFloat()*mapSizex, 0.0f);
-		if (side2 == 1) P2 = new Vector2f(0.0f, random.nextFloat()*mapSizey);
-		if (side2 == 2) P2 = new Vector2f(random.nextFloat()*mapSizex, mapSizey);
-		if (side2 == 3) P2 = new Vector2f(mapSizex, random.nextFloat()*mapSizey);
 	}
 	
-	// Returns all the cells intersected by the previously generated line connecting the two points
-	public ArrayList<Vector3f> intersectLineWithCells() {
-		// Start at P1 and iteratively move to P2
-		Float currentX = P1.x, currentY = P1.y;
-		Float slopeX = P2.x-P1.x, slopeY = P2.y-P1.y;
-		if (slopeX == 0) slopeX = 0.000001f; // Avoid dividing by 0 (very unlikely, but possible)
-		if (slopeY == 0) slopeY = 0.000001f;
-		Integer signX = ((slopeX > 0 ? 1 : 0)); // 1 if positive, 0 if negative
-		Integer signY = ((slopeY > 0 ? 1 : 0));
-		Integer cellX = getCellX(currentX), cellY = getCellY(currentY); // current Cell
+	// Casts the lines of the tasks [firstTask, endTask) and returns the visible cells found by them
+	// If there are growing cells, half of the lines go through one of them
+	private class CastTask extends RecursiveTask<CellVisibility> {
 		
-		// Now, visualize the grid formed by all the cells, these values are:
-		Float dx = (cellX + signX - currentX)/slopeX; // part of the line remaining until intersecting a vertical line
-		Float dy = (cellY + signY - currentY)/slopeY; // part of the line remaining until intersecting a horizontal line
+		private static final long serialVersionUID = 1L;
 		
-		ArrayList<Vector3f> lineInfo = new ArrayList<Vector3f>();  // Format: (CellX, CellY, Value)
+		private SplittableRandom[] randoms;
+		private int firstTask, endTask, totalLines;
+		private int[] growingCells;
+		
+		CastTask(SplittableRandom[] randoms, int firstTask, int endTask, int totalLines, int[] growingCells) {
+			this.randoms = randoms;
+			this.firstTask = firstTask;
+			this.endTask = endTask;
+			this.totalLines = totalLines;
+			this.growingCells = growingCells;
+		}
 		
-		while (cellX >= 0 && cellX < mapSizex && cellY >= 0 && cellY < mapSizey) { // While inside the map
+		@Override
+		protected CellVisibility compute() {
+			if (endTask - firstTask == 1) {
+				int lines = Math.min(LINES_PER_TASK, totalLines - firstTask * LINES_PER_TASK);
+				LineCaster caster = new LineCaster(randoms[firstTask]);
+				for (int i = 0; i < lines; i++) {
+					if (growingCells.length > 0 && caster.random.nextBoolean()) {
+						caster.generateLineThrough(growingCells[caster.random.nextInt(growingCells.length)]);
+					} else {
+						caster.generateLinePoints();
+					}
+					ArrayList<Vector3f> lineInfo = caster.intersectLineWithCells();
+					caster.addVisibleSets(lineInfo);
+				}
+				return caster.visibleCells;
+			}
 			
-			// Add cell to traversed list
-			lineInfo.add(new Vector3f(cellX, cellY, terrainValues.get(cellX).get(cellY)));
+			// Split in two halves, and merge the second result into the first one
+			int middle = (firstTask + endTask) >>> 1;
+			CastTask left = new CastTask(randoms, firstTask, middle, totalLines, growingCells);
+			left.fork();
+			CellVisibility right = new CastTask(randoms, middle, endTask, totalLines, growingCells).compute();
+			CellVisibility result = left.join();
+			result.or(right);
+			return result;
+		}
 		
-			if (dx < dy) { // intersection with vertical line
-				
-				currentX += dx*slopeX;
-				currentY += dx*slopeY;
-				cellX = (signX == 0 ? cellX-1 : cellX+1);
-				
-			} else if (dy < dx) { // intersection with horizontal line
+	}
+	
+	// Casts lines with its own random generator and keeps its own visible cells (one per task, nothing is shared)
+	private class LineCaster {
+		
+		private SplittableRandom random;
+		private CellVisibility visibleCells = new CellVisibility(freeCells, freeCells.length);
+		
+		private Vector2f P1 = new Vector2f(), P2 = new Vector2f(); // Endpoints of the line (segment)
+		private long[] mask = new long[16]; // The bits of the current subset of visible cells
+
+		LineCaster(SplittableRandom random) {
+			this.random = random;
+		}
+		
+		// Generates two random points on 2 different sides of the map
+		public void generateLinePoints() {
+			Integer side1, side2;
+			side1 = random.nextInt(4);
+			side2 = (side1 + random.nextInt(2)+1)%4;
+			
+			if (side1 == 0) P1.set(nextFloat()*mapSizex, 0.0f);
+			if (side1 == 1) P1.set(0.0f, nextFloat()*mapSizey);
+			if (side1 == 2) P1.set(nextFloat()*mapSizex, mapSizey);
+			if (side1 == 3) P1.set(mapSizex, nextFloat()*mapSizey);
+			
+			if (side2 == 0) P2.set(nextFloat()*mapSizex, 0.0f);
+			if (side2 == 1) P2.set(0.0f, nextFloat()*mapSizey);
+			if (side2 == 2) P2.set(nextFloat()*mapSizex, mapSizey);
+			if (side2 == 3) P2.set(mapSizex, nextFloat()*mapSizey);
+		}
+		
+		// Generates a line crossing the whole map through a random point of a free cell, with a random direction
+		public void generateLineThrough(int freeCell) {
+			long cell = freeCells[freeCell];
+			float x = CellId.getZ(cell) + nextFloat(), y = CellId.getX(cell) + nextFloat(); // Coordinates of the map
+			double angle = random.nextDouble() * Math.PI;
+			float directionX = (float) Math.cos(angle), directionY = (float) Math.sin(angle);
+			
+			// The part of the line inside the map (from tMin to tMax along the direction)
+			float tMin = -Float.MAX_VALUE, tMax = Float.MAX_VALUE;
+			if (directionX != 0) {
+				float t1 = -x / directionX, t2 = (mapSizex - x) / directionX;
+				tMin = Math.max(tMin, Math.min(t1, t2));
+				tMax = Math.min(tMax, Math.max(t1, t2));
+			}
+			if (directionY != 0) {
+				float t1 = -y / directionY, t2 = (mapSizey - y) / directionY;
+				tMin = Math.max(tMin, Math.min(t1, t2));
+				tMax = Math.min(tMax, Math.max(t1, t2));
+			}
+			P1.set(clamp(x + tMin * directionX, mapSizex), clamp(y + tMin * directionY, mapSizey));
+			P2.set(clamp(x + tMax * directionX, mapSizex), clamp(y + tMax * directionY, mapSizey));
+		}
+		
+		private float clamp(float value, float max) {
+			return Math.max(0, Math.min(value, max));
+		}
+		
+		private float nextFloat() {
+			return (float) random.nextDouble();
+		}
+		
+		// Returns all the cells intersected by the previously generated line connecting the two points
+		public ArrayList<Vector3f> intersectLineWithCells() {
+			// Start at P1 and iteratively move to P2
+			Float currentX = P1.x, currentY = P1.y;
+			Float slopeX = P2.x-P1.x, slopeY = P2.y-P1.y;
+			if (slopeX == 0) slopeX = 0.000001f; // Avoid dividing by 0 (very unlikely, but possible)
+			if (slopeY == 0) slopeY = 0.000001f;
+			Integer signX = ((slopeX > 0 ? 1 : 0)); // 1 if positive, 0 if negative
+			Integer signY = ((slopeY > 0 ? 1 : 0));
+			Integer cellX = getCellX(currentX), cellY = getCellY(currentY); // current Cell
+			
+			// Now, visualize the grid formed by all the cells, these values are:
+			Float dx = (cellX + signX - currentX)/slopeX; // part of the line remaining until intersecting a vertical line
+			Float dy = (cellY + signY - currentY)/slopeY; // part of the line remaining until intersecting a horizontal line
+			
+			ArrayList<Vector3f> lineInfo = new ArrayList<Vector3f>();  // Format: (CellX, CellY, Value)
+			
+			while (cellX >= 0 && cellX < mapSizex && cellY >= 0 && cellY < mapSizey) { // While inside the map
 				
-				currentX += dy*slopeX;
-				currentY += dy*slopeY;
-				cellY = (signY == 0 ? cellY-1 : cellY+1);
+				// Add cell to traversed list
+				lineInfo.add(new Vector3f(cellX, cellY, terrainValues[cellX][cellY]));
 				
-			} else { // intersection with both lines (unlikely)
+				if (dx < dy) { // intersection with vertical line
+					
+					currentX += dx*slopeX;
+					currentY += dx*slopeY;
+					cellX = (signX == 0 ? cellX-1 : cellX+1);
+					
+				} else if (dy < dx) { // intersection with horizontal line
+					
+					currentX += dy*slopeX;
+					currentY += dy*slopeY;
+					cellY = (signY == 0 ? cellY-1 : cellY+1);
+					
+				} else { // intersection with both lines (unlikely)
+					
+					currentX += dx*slopeX;
+					currentY += dy*slopeY;
+					cellX = (signX == 0 ? cellX-1 : cellX+1);
+					cellY = (signY == 0 ? cellY-1 : cellY+1);
+					
+				}
 				
-				currentX += dx*slopeX;
-				currentY += dy*slopeY;
-				cellX = (signX == 0 ? cellX-1 : cellX+1);
-				cellY = (signY == 0 ? cellY-1 : cellY+1);
+				// Recompute these values at the new position
+				dx = (cellX + signX - currentX)/slopeX;
+				dy = (cellY + signY - currentY)/slopeY;
 				
 			}
 			
-			// Recompute these values at the new position
-			dx = (cellX + signX - currentX)/slopeX;
-			dy = (cellY + signY - currentY)/slopeY;
+			return lineInfo;
 			
 		}
 		
-		return lineInfo;
-		
-	}
-	
-	// Divides the cells into subsets separated by walls
-	// For each each subset, traverse all the cells and add every cell on the subset as a visible cell from each cell on the subset
-	public void addVisibleSets(ArrayList<Vector3f> lineInfo) {
-		Vector3f cell;
-		ArrayList<Vector2f> actualSet = new ArrayList<Vector2f>();
+		// Makes every cell of the subset visible from all the others
+		// The subset is turned into a bitset (the words from its first to its last column) that is ORed into the row
+		// of each cell: k rows of w words instead of k*k bits set one by one. When the cells are so far apart that
+		// w > k (long lines cross many distant ids), the bits are set one by one
+		private void addVisibleSet(int[] cells, int numCells) {
+			if (numCells == 0) return;
+			int minWord = cells[0] >>> 6, maxWord = minWord;
+			for (int i = 1; i < numCells; i++) {
+				minWord = Math.min(minWord, cells[i] >>> 6);
+				maxWord = Math.max(maxWord, cells[i] >>> 6);
+			}
+			int numWords = maxWord - minWord + 1;
+			
+			if (numWords > numCells) {
+				for (int i = 0; i < numCells; i++) { // For each cell on the subset
+					for (int j = 0; j < numCells; j++) { // Add all of them as visible cells
+						visibleCells.set(cells[i], cells[j]);
+					}
+				}
+				return;
+			}
+			
+			if (numWords > mask.length) mask = new long[Math.max(numWords, mask.length * 2)];
+			Arrays.fill(mask, 0, numWords, 0);
+			for (int i = 0; i < numCells; i++) {
+				mask[(cells[i] >>> 6) - minWord] |= 1L << cells[i];
+			}
+			for (int i = 0; i < numCells; i++) {
+				visibleCells.orWords(cells[i], minWord, mask, numWords);
+			}
+		}
 		
-		for (int i = 0; i < lineInfo.size(); i++) { // traverse the line
-			cell = lineInfo.get(i);
+		// Divides the cells into subsets separated by walls
+		// For each each subset, traverse all the cells and add every cell on the subset as a visible cell from each cell on the subset
+		public void addVisibleSets(ArrayList<Vector3f> lineInfo) {
+			Vector3f cell;
+			int[] actualSet = new int[lineInfo.size()]; // The free cells of the subset (positions in freeCells)
+			int setSize = 0;
 			
-			if (cell.z == 0) { // If no wall is found, keep adding cells to the visible subset
-				actualSet.add(new Vector2f(cell.x, cell.y));
-			} else { // If a wall is found...
+			for (int i = 0; i < lineInfo.size(); i++) { // traverse the line
+				cell = lineInfo.get(i);
 				
-				for (int ii = 0; ii < actualSet.size(); ii++) { // For each cell on the subset
-					Integer cellId = convertCellToInt(actualSet.get(ii));
-					
-					for (int jj = 0; jj < actualSet.size(); jj++) { // Add all of them as visible cells
-						Integer cellId2 = convertCellToInt(actualSet.get(jj));
-						if (!visibleCells.containsKey(cellId)) { // If no cell was added to the current Id, create the set
-							Set<Integer> newKey = new HashSet<Integer>();
-							newKey.add(cellId2);
-							visibleCells.put(cellId, newKey);
-						} else { // Add the cell directly otherwise
-							visibleCells.get(cellId).add(cellId2);
-						}
-					}
+				if (cell.z == 0) { // If no wall is found, keep adding cells to the visible subset
+					actualSet[setSize++] = freeCellIndex[(int) cell.x][(int) cell.y];
+				} else { // If a wall is found...
 					
+					addVisibleSet(actualSet, setSize);
+					setSize = 0;
 				}
-				
-				actualSet.clear();
 			}
 		}
+		
 	}
 	
 	// Returns the current Cell.x with a given x position
@@ -235,11 +754,10 @@ public class Visibility {
 		return ((int) c == mapSizey ? mapSizey-1 : (int) c);
 	}
 	
-	// Cell(x,y) = xxxyyy. For example, Cell(12,5) = 012005
-	public Integer convertCellToInt(Vector2f cell) {
-		int x = (int) cell.y*1000; // Coordinates switched to match the map's coordinate system
-		int y = (int) cell.x;
-		return x+y;
+	// Returns whether the first line of a visibility file says that its cell IDs are Morton codes
+	// (the files written before are coded as x*1000+z)
+	public static boolean isMortonHeader(String header) {
+		return header != null && header.trim().endsWith(MORTON_TAG);
 	}
-
+	
 }
@@ -0,0 +1,137 @@
+package terrain;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+// Cache of the visibility of the maps (binary visibility files in res/cache/), keyed by a hash of the contents of the
+// map file and of the parameters of the generation. A map that is edited gets another key, so the visibility of its
+// old version is never used: the new one has to be generated (in the background, see Terrain) and then replaces it.
+//
+// The visibility is the exact one (see Visibility.generateExactVisibilityFile), so it only depends on the map.
+//
+// Usage (generates the visibility of a map of the res folder if it is not cached): VisibilityCache mapName
+public class VisibilityCache {
+
+	private static final String RES_LOC = "res/";
+	private static final String CACHE_LOC = "cache/"; // Inside the res folder
+	private static final String GENERATOR = "exact field of view 1"; // How the visibility is generated (and its version)
+	private static final int KEY_LENGTH = 16; // Hexadecimal digits of the hash used as key
+
+	private String mapName;
+	private String key;
+	private Thread generator; // The background generation (null if it was not started)
+	private volatile boolean ready;
+
+	// Hashes the map file res/mapName.txt (the hash is computed again for each cache, so it always matches the file)
+	public VisibilityCache(String mapName) {
+		this.mapName = mapName;
+		this.key = computeKey(mapName);
+		this.ready = new File(getFileName()).exists();
+	}
+
+	// The hash of the map file and the generation parameters (SHA-256, first KEY_LENGTH digits)
+	private static String computeKey(String mapName) {
+		byte[] hash = null;
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(Files.readAllBytes(new File(RES_LOC + mapName + ".txt").toPath()));
+			digest.update(GENERATOR.getBytes("UTF-8"));
+			hash = digest.digest();
+		} catch (IOException e) {
+			System.err.println("File not found in res folder!");
+			System.exit(-1);
+		} catch (NoSuchAlgorithmException e) {
+			System.err.println("SHA-256 is not available");
+			System.exit(-1);
+		}
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; key.length() < KEY_LENGTH; i++) {
+			key.append(String.format("%02x", hash[i]));
+		}
+		return key.toString();
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	// The name of the cached visibility, relative to the res folder and without extension
+	public String getVisibilityName() {
+		return CACHE_LOC + mapName + "-" + key;
+	}
+
+	// The binary visibility file of the map (it only exists once it is generated)
+	public String getFileName() {
+		return RES_LOC + getVisibilityName() + VisibilityFile.EXTENSION;
+	}
+
+	// Returns whether the visibility of the current contents of the map is in the cache
+	public boolean isReady() {
+		return ready;
+	}
+
+	// Generates the visibility of the map in a background thread (if it is not cached or being generated yet)
+	// One processor is left for the rendering
+	public synchronized void generateInBackground() {
+		if (ready || generator != null) return;
+		generator = new Thread(new Runnable() {
+			public void run() {
+				generate(Math.max(Runtime.getRuntime().availableProcessors() - 1, 1));
+			}
+		}, "VisibilityCache");
+		generator.setDaemon(true); // Never keeps the application alive
+		generator.start();
+	}
+
+	// Generates the visibility of the map and stores it in the cache, replacing the ones of its old versions
+	// The file is written with another name and then renamed, so the cache never has a file written halfway
+	public void generate(int threads) {
+		String tempName = getVisibilityName() + "-tmp";
+		new File(RES_LOC + CACHE_LOC).mkdirs();
+		new Visibility(mapName).generateExactVisibilityFile(threads, tempName);
+		VisibilityFile.convert(tempName);
+		try {
+			Files.move(new File(RES_LOC + tempName + VisibilityFile.EXTENSION).toPath(), new File(getFileName()).toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			Files.delete(new File(RES_LOC + tempName + ".txt").toPath());
+		} catch (IOException e) {
+			System.err.println("Error writting the visibility cache");
+			System.exit(-1);
+		}
+		removeOldVersions();
+		ready = true;
+	}
+
+	// Deletes the cached visibility of the other versions of the map
+	private void removeOldVersions() {
+		Pattern versions = Pattern.compile(Pattern.quote(mapName) + "-[0-9a-f]{" + KEY_LENGTH + "}\\" + VisibilityFile.EXTENSION);
+		File[] files = new File(RES_LOC + CACHE_LOC).listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			if (versions.matcher(file.getName()).matches() && !file.getName().equals(mapName + "-" + key + VisibilityFile.EXTENSION)) {
+				file.delete();
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: VisibilityCache mapName");
+			System.exit(-1);
+		}
+		VisibilityCache cache = new VisibilityCache(args[0]);
+		if (cache.isReady()) {
+			System.out.println("The visibility is cached in " + cache.getFileName());
+			return;
+		}
+		long start = System.nanoTime();
+		cache.generate(Runtime.getRuntime().availableProcessors());
+		System.out.println("Visibility cached in " + cache.getFileName() + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+}
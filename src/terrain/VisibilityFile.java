@@ -0,0 +1,211 @@
+package terrain;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Binary visibility file (.pvs), memory-mapped so only the rows that are used are read (and decoded).
+//
+// Format (big endian):
+//   int magic ("PVS1"), int version, int number of rows, int reserved (0)
+//   long cell id of each row (sorted)
+//   long position of each row in the file, plus the end of the last one
+//   the rows: number of visible cells and the visible cell ids (sorted) as differences with the previous one,
+//   all of them as variable-length integers (7 bits per byte, the highest bit set when another byte follows)
+// The cell ids are Morton codes (see CellId), so the differences of close cells take one or two bytes.
+//
+// Usage (converts a text visibility file of the res folder): VisibilityFile visibilityName
+public class VisibilityFile {
+
+	private static final String RES_LOC = "res/";
+	public static final String EXTENSION = ".pvs";
+	private static final int MAGIC = 0x50565331; // "PVS1"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+
+	private MappedByteBuffer buffer;
+	private int numRows;
+	private int offsetsStart; // Position of the table of row positions
+	private int next; // Position after the last variable-length integer read
+
+	private VisibilityFile(MappedByteBuffer buffer) {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			System.err.println("Wrong binary visibility file");
+			System.exit(-1);
+		}
+		this.numRows = buffer.getInt(8);
+		this.offsetsStart = HEADER_BYTES + 8 * numRows;
+	}
+
+	// Maps a binary visibility file (nothing but the header is read until it is used)
+	public static VisibilityFile open(String fileName) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(fileName, "r");
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) { // A single mapping can't be bigger
+				System.err.println("The binary visibility file is bigger than 2 GB");
+				System.exit(-1);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			file.close(); // The mapping stays valid after closing the file
+			return new VisibilityFile(buffer);
+		} catch (IOException e) {
+			System.err.println("Error reading the binary visibility file");
+			System.exit(-1);
+		}
+		return null;
+	}
+
+	// Returns whether the binary version of a text visibility file (res/visibilityName) can be used instead of it:
+	// it exists and it is not older than the text file
+	public static boolean isUpToDate(String visibilityName) {
+		File binary = new File(RES_LOC + visibilityName + EXTENSION), text = new File(RES_LOC + visibilityName + ".txt");
+		return binary.exists() && (!text.exists() || binary.lastModified() >= text.lastModified());
+	}
+
+	public int getNumRows() {
+		return numRows;
+	}
+
+	// The cell id of a row
+	public long getRowCell(int row) {
+		return buffer.getLong(HEADER_BYTES + 8 * row);
+	}
+
+	// Copies the cell ids of all the rows (sorted)
+	public long[] getRowCells() {
+		long[] cells = new long[numRows];
+		for (int row = 0; row < numRows; row++) {
+			cells[row] = getRowCell(row);
+		}
+		return cells;
+	}
+
+	// Returns the number of cells visible from a row
+	public int getRowLength(int row) {
+		return (int) readVarLong((int) buffer.getLong(offsetsStart + 8 * row));
+	}
+
+	// Decodes the cells visible from a row into dest (at least getRowLength(row) long) and returns how many there are
+	public int readRow(int row, long[] dest) {
+		int length = (int) readVarLong((int) buffer.getLong(offsetsStart + 8 * row));
+		long cell = 0;
+		for (int i = 0; i < length; i++) {
+			cell += readVarLong(next);
+			dest[i] = cell;
+		}
+		return length;
+	}
+
+	// Reads a variable-length integer at this position (next is left after it)
+	private long readVarLong(int position) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get(position++);
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		next = position;
+		return value;
+	}
+
+	// Writes a binary visibility file with the cells visible from each cell (cells sorted and without duplicates, as
+	// the rows of a VisibilityTextFile; rows[i] has rowLengths[i] visible cells, in any order)
+	public static void write(String fileName, long[] cells, long[][] rows, int[] rowLengths) {
+		int numCells = cells.length;
+
+		// Encode the rows first, to know where each one starts
+		ByteArray encoded = new ByteArray();
+		long[] offsets = new long[numCells + 1];
+		long rowsStart = HEADER_BYTES + 16L * numCells + 8;
+		for (int i = 0; i < numCells; i++) {
+			offsets[i] = rowsStart + encoded.size;
+			long[] row = Arrays.copyOf(rows[i], rowLengths[i]);
+			Arrays.sort(row);
+			int length = 0;
+			for (int j = 0; j < row.length; j++) {
+				if (j == 0 || row[j] != row[j-1]) row[length++] = row[j];
+			}
+			encoded.writeVarLong(length);
+			long previous = 0;
+			for (int j = 0; j < length; j++) {
+				encoded.writeVarLong(row[j] - previous);
+				previous = row[j];
+			}
+		}
+		offsets[numCells] = rowsStart + encoded.size;
+
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numCells);
+			out.writeInt(0);
+			for (int i = 0; i < numCells; i++) {
+				out.writeLong(cells[i]);
+			}
+			for (long offset : offsets) {
+				out.writeLong(offset);
+			}
+			out.write(encoded.bytes, 0, encoded.size);
+			out.close();
+		} catch (IOException e) {
+			System.err.println("Error writting the binary visibility file");
+			System.exit(-1);
+		}
+	}
+
+	// Growing array of bytes for the encoded rows
+	private static class ByteArray {
+		byte[] bytes = new byte[1024];
+		int size = 0;
+
+		void writeVarLong(long value) {
+			if (size + 10 > bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+			while ((value & ~0x7FL) != 0) {
+				bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+	}
+
+	// Converts the text visibility file res/visibilityName.txt into res/visibilityName.pvs
+	// (the old files, coded as x*1000+z, are converted to Morton codes by VisibilityTextFile)
+	public static void convert(String visibilityName) {
+		VisibilityTextFile textFile = VisibilityTextFile.open(RES_LOC + visibilityName + ".txt");
+		int numRows = textFile.getNumRows();
+		long[][] rows = new long[numRows][];
+		int[] rowLengths = new int[numRows];
+		long[] decoded = new long[16];
+		for (int row = 0; row < numRows; row++) {
+			int maxLength = textFile.getMaxRowLength(row);
+			if (maxLength > decoded.length) decoded = new long[Math.max(maxLength, decoded.length * 2)];
+			rowLengths[row] = textFile.readRow(row, decoded);
+			rows[row] = Arrays.copyOf(decoded, rowLengths[row]);
+		}
+		textFile.close();
+
+		write(RES_LOC + visibilityName + EXTENSION, textFile.getRowCells(), rows, rowLengths);
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: VisibilityFile visibilityName");
+			System.exit(-1);
+		}
+		long start = System.nanoTime();
+		convert(args[0]);
+		System.out.println("Binary visibility file written in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+}
@@ -0,0 +1,176 @@
+package terrain;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+// Text visibility file (the format written by Visibility): a header line, and then two lines per row, the cell id
+// and the ids of the cells visible from it separated by commas. Every reader of these files goes through this class.
+//
+// The file is scanned once to index its rows: the cell of each row (sorted, and if a cell has several rows the last
+// one is kept) and where its visible cells are. Then the rows are decoded one by one when they are needed, so a file
+// can be read whole or by parts (see RegionStreamer).
+// The files written before the cell ids were Morton codes (x*1000+z, without the tag on the header) are converted
+// while reading, so the cell ids given by this class are always the ones of CellId.
+public class VisibilityTextFile {
+
+	private RandomAccessFile file; // Open until close is called
+	private boolean legacy; // The file uses x*1000+z cell ids
+
+	// The index of the rows: their cells (sorted), and where the list of visible cells of each one starts and its length
+	private long[] rowCells;
+	private long[] rowOffsets;
+	private int[] rowLengths;
+	private byte[] buffer = new byte[256]; // The bytes of the last row decoded
+
+	private VisibilityTextFile(String fileName) throws IOException {
+		indexFile(fileName);
+		this.file = new RandomAccessFile(fileName, "r");
+	}
+
+	// Indexes a text visibility file (only the cell of each row is decoded)
+	public static VisibilityTextFile open(String fileName) {
+		try {
+			return new VisibilityTextFile(fileName);
+		} catch (IOException e) {
+			System.err.println("Error reading the Visibility file");
+			System.exit(-1);
+		}
+		return null;
+	}
+
+	// Scans the file and stores the cell of each row and the position of its visible cells
+	private void indexFile(String fileName) throws IOException {
+		long[] cells = new long[1024];
+		long[] offsets = new long[1024];
+		int[] lengths = new int[1024];
+		int numRows = 0;
+
+		InputStream in = new BufferedInputStream(new FileInputStream(fileName), 1 << 16);
+		StringBuilder header = new StringBuilder();
+		long position = 0;
+		int c;
+		while ((c = in.read()) != -1) { // The header line
+			position++;
+			if (c == '\n') break;
+			header.append((char) c);
+		}
+		legacy = !Visibility.isMortonHeader(header.toString());
+
+		while (true) {
+			// The current cell
+			long cell = 0;
+			boolean digits = false;
+			while ((c = in.read()) != -1) {
+				position++;
+				if (c == '\n') break;
+				if (c >= '0' && c <= '9') {
+					cell = cell * 10 + (c - '0');
+					digits = true;
+				}
+			}
+			if (!digits) break;
+
+			// The cells visible from it (only skipped for now)
+			long offset = position;
+			while ((c = in.read()) != -1) {
+				position++;
+				if (c == '\n') break;
+			}
+
+			if (numRows == cells.length) {
+				cells = Arrays.copyOf(cells, numRows * 2);
+				offsets = Arrays.copyOf(offsets, numRows * 2);
+				lengths = Arrays.copyOf(lengths, numRows * 2);
+			}
+			cells[numRows] = legacy ? CellId.fromLegacy(cell) : cell;
+			offsets[numRows] = offset;
+			lengths[numRows++] = (int) (position - offset);
+			if (c == -1) break;
+		}
+		in.close();
+
+		// Sort the rows by cell (if a cell has several rows, the last one is kept)
+		long[] sorted = Arrays.copyOf(cells, numRows);
+		Arrays.sort(sorted);
+		int numCells = 0;
+		for (int i = 0; i < numRows; i++) {
+			if (i == 0 || sorted[i] != sorted[i-1]) sorted[numCells++] = sorted[i];
+		}
+		rowCells = Arrays.copyOf(sorted, numCells);
+		rowOffsets = new long[numCells];
+		rowLengths = new int[numCells];
+		for (int i = 0; i < numRows; i++) {
+			int row = Arrays.binarySearch(rowCells, cells[i]);
+			rowOffsets[row] = offsets[i];
+			rowLengths[row] = lengths[i];
+		}
+	}
+
+	// Returns whether the file uses the old x*1000+z cell ids (they are converted anyway)
+	public boolean isLegacy() {
+		return legacy;
+	}
+
+	public int getNumRows() {
+		return rowCells.length;
+	}
+
+	// The cell id of a row
+	public long getRowCell(int row) {
+		return rowCells[row];
+	}
+
+	// The cell ids of all the rows (sorted, without duplicates; the array is not copied)
+	public long[] getRowCells() {
+		return rowCells;
+	}
+
+	// Returns the maximum number of cells visible from a row (each cell id takes at least a digit and a comma)
+	public int getMaxRowLength(int row) {
+		return (rowLengths[row] + 1) / 2;
+	}
+
+	// Decodes the cells visible from a row into dest (at least getMaxRowLength(row) long) and returns how many there are
+	// Synchronized, as the rows of a streamed file are read by the loader thread and the main one
+	public synchronized int readRow(int row, long[] dest) {
+		int length = rowLengths[row];
+		if (length > buffer.length) buffer = new byte[Math.max(length, buffer.length * 2)];
+		try {
+			file.seek(rowOffsets[row]);
+			file.readFully(buffer, 0, length);
+		} catch (IOException e) {
+			System.err.println("Error reading the Visibility file");
+			System.exit(-1);
+		}
+
+		int numCells = 0;
+		long cell = 0;
+		boolean digits = false;
+		for (int i = 0; i <= length; i++) {
+			int c = i < length ? buffer[i] : ',';
+			if (c >= '0' && c <= '9') {
+				cell = cell * 10 + (c - '0');
+				digits = true;
+			} else if (digits) { // End of a cell id
+				dest[numCells++] = legacy ? CellId.fromLegacy(cell) : cell;
+				cell = 0;
+				digits = false;
+			}
+		}
+		return numCells;
+	}
+
+	public synchronized void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			System.err.println("Error reading the Visibility file");
+			System.exit(-1);
+		}
+	}
+
+}
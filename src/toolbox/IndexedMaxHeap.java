@@ -0,0 +1,129 @@
+package toolbox;
+
+import java.util.Arrays;
+
+// Binary max-heap over the ids [0, capacity) with a float key for each id.
+// Each id knows its position in the heap, so its key can be changed or removed in O(log n).
+// Ties are broken by the lowest id, so the result never depends on the insertion order.
+public class IndexedMaxHeap {
+
+	private int size; // Number of ids currently in the heap
+	private int[] heap; // The ids, ordered as a binary heap
+	private int[] position; // Position of each id in the heap (-1 if not contained)
+	private float[] keys; // The key of each id
+
+	public IndexedMaxHeap(int capacity) {
+		this.size = 0;
+		this.heap = new int[capacity];
+		this.position = new int[capacity];
+		this.keys = new float[capacity];
+		Arrays.fill(position, -1);
+	}
+
+	// Inserts the id with this key, or changes its key if it was already contained
+	public void update(int id, float key) {
+		int pos = position[id];
+		if (pos == -1) {
+			keys[id] = key;
+			heap[size] = id;
+			position[id] = size;
+			siftUp(size++);
+		} else if (key != keys[id]) {
+			float oldKey = keys[id];
+			keys[id] = key;
+			if (key > oldKey) siftUp(pos);
+			else siftDown(pos);
+		}
+	}
+
+	// Removes the id from the heap (nothing happens if it was not contained)
+	public void remove(int id) {
+		int pos = position[id];
+		if (pos == -1) return;
+		size--;
+		position[id] = -1;
+		if (pos == size) return;
+		// Move the last element to the empty position and restore the heap property
+		int last = heap[size];
+		heap[pos] = last;
+		position[last] = pos;
+		siftUp(pos);
+		siftDown(position[last]);
+	}
+
+	// Returns the id with the maximum key (-1 if the heap is empty)
+	public int peek() {
+		return size == 0 ? -1 : heap[0];
+	}
+
+	// Removes and returns the id with the maximum key (-1 if the heap is empty)
+	public int poll() {
+		int top = peek();
+		if (top != -1) remove(top);
+		return top;
+	}
+
+	public boolean contains(int id) {
+		return position[id] != -1;
+	}
+
+	public float getKey(int id) {
+		return keys[id];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// Removes all the ids from the heap
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			position[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	// True if the id a must be placed above the id b
+	private boolean above(int a, int b) {
+		return keys[a] > keys[b] || (keys[a] == keys[b] && a < b);
+	}
+
+	private void siftUp(int pos) {
+		int id = heap[pos];
+		while (pos > 0) {
+			int parentPos = (pos - 1) >>> 1;
+			int parent = heap[parentPos];
+			if (!above(id, parent)) break;
+			heap[pos] = parent;
+			position[parent] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = id;
+		position[id] = pos;
+	}
+
+	private void siftDown(int pos) {
+		int id = heap[pos];
+		int half = size >>> 1;
+		while (pos < half) {
+			int childPos = 2 * pos + 1;
+			int child = heap[childPos];
+			int rightPos = childPos + 1;
+			if (rightPos < size && above(heap[rightPos], child)) {
+				childPos = rightPos;
+				child = heap[childPos];
+			}
+			if (!above(child, id)) break;
+			heap[pos] = child;
+			position[child] = pos;
+			pos = childPos;
+		}
+		heap[pos] = id;
+		position[id] = pos;
+	}
+
+}
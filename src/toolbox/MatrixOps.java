@@ -8,28 +8,54 @@ import entities.Camera;
 
 public class MatrixOps {
 
+	private static final Vector3f X_AXIS = new Vector3f(1, 0, 0);
+	private static final Vector3f Y_AXIS = new Vector3f(0, 1, 0);
+	private static final Vector3f Z_AXIS = new Vector3f(0, 0, 1);
+
 	public static Matrix4f createTransformationMatrix(Vector3f translation, float rx, float ry,
 			float rz, float scale) {
-		Matrix4f matrix = new Matrix4f();
-		matrix.setIdentity();
-		Matrix4f.translate(translation, matrix, matrix);
-		Matrix4f.rotate((float) Math.toRadians(rx), new Vector3f(1,0,0), matrix, matrix);
-		Matrix4f.rotate((float) Math.toRadians(ry), new Vector3f(0,1,0), matrix, matrix);
-		Matrix4f.rotate((float) Math.toRadians(rz), new Vector3f(0,0,1), matrix, matrix);
-		Matrix4f.scale(new Vector3f(scale,scale,scale), matrix, matrix);
-		return matrix;
+		return createTransformationMatrix(translation, rx, ry, rz, scale, new Matrix4f());
+	}
+	
+	// Same as above, but the result is stored in dest (nothing is allocated)
+	public static Matrix4f createTransformationMatrix(Vector3f translation, float rx, float ry,
+			float rz, float scale, Matrix4f dest) {
+		dest.setIdentity();
+		Matrix4f.translate(translation, dest, dest);
+		Matrix4f.rotate((float) Math.toRadians(rx), X_AXIS, dest, dest);
+		Matrix4f.rotate((float) Math.toRadians(ry), Y_AXIS, dest, dest);
+		Matrix4f.rotate((float) Math.toRadians(rz), Z_AXIS, dest, dest);
+		scale(dest, scale);
+		return dest;
 	}
 	
 	public static Matrix4f createViewMatrix(Camera camera) {
-		Matrix4f viewMatrix = new Matrix4f();
-		viewMatrix.setIdentity();
-		Matrix4f.rotate((float) Math.toRadians(camera.getPitch()), new Vector3f(1, 0, 0), viewMatrix,
-				viewMatrix);
-		Matrix4f.rotate((float) Math.toRadians(camera.getYaw()), new Vector3f(0, 1, 0), viewMatrix, viewMatrix);
+		return createViewMatrix(camera, new Matrix4f());
+	}
+	
+	// Same as above, but the result is stored in dest (nothing is allocated)
+	public static Matrix4f createViewMatrix(Camera camera, Matrix4f dest) {
+		dest.setIdentity();
+		Matrix4f.rotate((float) Math.toRadians(camera.getPitch()), X_AXIS, dest, dest);
+		Matrix4f.rotate((float) Math.toRadians(camera.getYaw()), Y_AXIS, dest, dest);
 		Vector3f cameraPos = camera.getPosition();
-		Vector3f negativeCameraPos = new Vector3f(-cameraPos.x,-cameraPos.y,-cameraPos.z);
-		Matrix4f.translate(negativeCameraPos, viewMatrix, viewMatrix);
-		return viewMatrix;
+		translate(dest, -cameraPos.x, -cameraPos.y, -cameraPos.z);
+		return dest;
+	}
+	
+	// Same as Matrix4f.translate, without a vector for the translation
+	private static void translate(Matrix4f matrix, float x, float y, float z) {
+		matrix.m30 += matrix.m00 * x + matrix.m10 * y + matrix.m20 * z;
+		matrix.m31 += matrix.m01 * x + matrix.m11 * y + matrix.m21 * z;
+		matrix.m32 += matrix.m02 * x + matrix.m12 * y + matrix.m22 * z;
+		matrix.m33 += matrix.m03 * x + matrix.m13 * y + matrix.m23 * z;
+	}
+	
+	// Same as Matrix4f.scale with the same scale on the three axes, without a vector for the scale
+	private static void scale(Matrix4f matrix, float scale) {
+		matrix.m00 *= scale; matrix.m01 *= scale; matrix.m02 *= scale; matrix.m03 *= scale;
+		matrix.m10 *= scale; matrix.m11 *= scale; matrix.m12 *= scale; matrix.m13 *= scale;
+		matrix.m20 *= scale; matrix.m21 *= scale; matrix.m22 *= scale; matrix.m23 *= scale;
 	}
 	
 	// Compute Qv for a vertex (method used on the slides)